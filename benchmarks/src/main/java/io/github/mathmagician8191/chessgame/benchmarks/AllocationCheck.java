@@ -0,0 +1,121 @@
+package io.github.mathmagician8191.chessgame.benchmarks;
+
+import io.github.mathmagician8191.chessgame.Board;
+import io.github.mathmagician8191.chessgame.Engine;
+import io.github.mathmagician8191.chessgame.Perft;
+import io.github.mathmagician8191.chessgame.SearchStatistics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+public class AllocationCheck {
+  /*
+  Measures the bytes allocated per perft node, search node and call on the hot paths
+  Exits with an error when a limit in allocation-limits.properties is exceeded,
+  mvn verify runs it so the build fails on allocation regressions
+  */
+
+  static final int REPEATS = 3;
+
+  static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  static long allocated() {
+    return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  public static void main(String[] args) throws IOException {
+    Properties limits = new Properties();
+    try (InputStream input = AllocationCheck.class.getResourceAsStream("/allocation-limits.properties")) {
+      limits.load(input);
+    }
+
+    int failures = 0;
+    for (String pieces : new String[] {"standard","fairy"}) {
+      failures += check(limits,"perft." + pieces,perft(pieces));
+      failures += check(limits,"search." + pieces,search(pieces));
+      failures += check(limits,"toString." + pieces,toFen(pieces));
+      failures += check(limits,"parseFen." + pieces,parseFen(pieces));
+      failures += check(limits,"isAttacked." + pieces,isAttacked(pieces));
+    }
+    if (failures > 0) {
+      System.out.println(failures + " allocation limits exceeded");
+      System.exit(1);
+    }
+  }
+
+  static int check(Properties limits,String name,long bytes) {
+    long limit = Long.parseLong(limits.getProperty(name));
+    boolean passed = bytes <= limit;
+    System.out.println((passed ? "ok   " : "FAIL ") + name + ": " + bytes + " bytes (limit " + limit + ")");
+    return passed ? 0 : 1;
+  }
+
+  //each measurement is repeated so the code is compiled, the lowest is used
+
+  static long perft(String pieces) {
+    Board board = Positions.board("8x8",pieces);
+    Perft perft = new Perft("qrbn",null);
+    long best = Long.MAX_VALUE;
+    for (int i=0;i<REPEATS;i++) {
+      long start = allocated();
+      long nodes = perft.perft(board,3);
+      best = Math.min(best,(allocated() - start) / nodes);
+    }
+    return best;
+  }
+
+  static long search(String pieces) {
+    long best = Long.MAX_VALUE;
+    for (int i=0;i<REPEATS;i++) {
+      Engine engine = Positions.engine("8x8",pieces,3);
+      SearchStatistics statistics = new SearchStatistics(false);
+      engine.setStatistics(statistics);
+      long start = allocated();
+      Engine.makeMove(engine);
+      best = Math.min(best,(allocated() - start) / Math.max(1,statistics.totalNodes()));
+    }
+    return best;
+  }
+
+  static long toFen(String pieces) {
+    Board board = Positions.board("8x8",pieces);
+    long best = Long.MAX_VALUE;
+    for (int i=0;i<REPEATS;i++) {
+      long start = allocated();
+      for (int j=0;j<10000;j++) {
+        board.toString();
+      }
+      best = Math.min(best,(allocated() - start) / 10000);
+    }
+    return best;
+  }
+
+  static long parseFen(String pieces) {
+    String fen = Positions.fen("8x8",pieces);
+    long best = Long.MAX_VALUE;
+    for (int i=0;i<REPEATS;i++) {
+      long start = allocated();
+      for (int j=0;j<10000;j++) {
+        new Board(fen,2,2,1,8,false);
+      }
+      best = Math.min(best,(allocated() - start) / 10000);
+    }
+    return best;
+  }
+
+  static long isAttacked(String pieces) {
+    Board board = Positions.board("8x8",pieces);
+    int[] square = new int[] {4,4};
+    long best = Long.MAX_VALUE;
+    for (int i=0;i<REPEATS;i++) {
+      long start = allocated();
+      for (int j=0;j<10000;j++) {
+        board.isAttacked(square,false);
+      }
+      best = Math.min(best,(allocated() - start) / 10000);
+    }
+    return best;
+  }
+}
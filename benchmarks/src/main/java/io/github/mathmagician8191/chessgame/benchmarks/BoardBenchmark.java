@@ -0,0 +1,82 @@
+package io.github.mathmagician8191.chessgame.benchmarks;
+
+import io.github.mathmagician8191.chessgame.Board;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+  /*
+  Board level operations: FEN conversion and move validation
+  */
+
+  @Param({"6x6","8x8","10x10","16x16"})
+  public String size;
+
+  @Param({"standard","fairy"})
+  public String pieces;
+
+  String fen;
+  Board board;
+
+  //a pawn push from the first column
+  int[] startSquare;
+  int[] endSquare;
+
+  //a square in the middle of the board
+  int[] centre;
+
+  @Setup
+  public void setup() {
+    this.fen = Positions.fen(this.size,this.pieces);
+    this.board = Positions.board(this.size,this.pieces);
+    this.startSquare = new int[] {0,1};
+    this.endSquare = new int[] {0,2};
+    this.centre = new int[] {this.board.width/2,this.board.height/2};
+  }
+
+  @Benchmark
+  public Board parseFen() {
+    return new Board(this.fen,2,2,1,Positions.width(this.size),false);
+  }
+
+  @Benchmark
+  public String toFen() {
+    return this.board.toString();
+  }
+
+  @Benchmark
+  public Board getMove() {
+    return this.board.getMove(this.startSquare,this.endSquare);
+  }
+
+  @Benchmark
+  public boolean isMoveValid() {
+    return this.board.isMoveValid(this.startSquare,this.endSquare);
+  }
+
+  @Benchmark
+  public boolean isAttacked() {
+    return this.board.isAttacked(this.centre,false);
+  }
+
+  @Benchmark
+  public boolean anyMoves() {
+    return this.board.anyMoves();
+  }
+}
@@ -0,0 +1,64 @@
+package io.github.mathmagician8191.chessgame.benchmarks;
+
+import io.github.mathmagician8191.chessgame.Engine;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+  /*
+  Engine operations: generating moves, the static evaluation and a fixed-depth search
+  */
+
+  @Param({"6x6","8x8","10x10","16x16"})
+  public String size;
+
+  @Param({"standard","fairy"})
+  public String pieces;
+
+  //depth of the search benchmark
+  @Param({"2"})
+  public int depth;
+
+  Engine engine;
+
+  @Setup
+  public void setup() {
+    this.engine = Positions.engine(this.size,this.pieces,this.depth);
+  }
+
+  @Benchmark
+  public ArrayList<Engine> getMoves() {
+    return this.engine.getMoves();
+  }
+
+  @Benchmark
+  public int evaluate() {
+    return this.engine.evaluate();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 2)
+  @Measurement(iterations = 5)
+  public Engine search() {
+    return Engine.makeMove(this.engine,this.depth);
+  }
+}
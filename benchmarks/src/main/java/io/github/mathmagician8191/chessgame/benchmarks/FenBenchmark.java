@@ -0,0 +1,61 @@
+package io.github.mathmagician8191.chessgame.benchmarks;
+
+import io.github.mathmagician8191.chessgame.Board;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FenBenchmark {
+  /*
+  FEN parsing and writing throughput, including boards wider than the alphabet
+  */
+
+  @Param({"8x8","26x26","32x32"})
+  public String size;
+
+  @Param({"standard","fairy"})
+  public String pieces;
+
+  String fen;
+  Board board;
+  StringBuilder output;
+
+  @Setup
+  public void setup() {
+    this.fen = Positions.fen(this.size,this.pieces);
+    this.board = Positions.board(this.size,this.pieces);
+    this.output = new StringBuilder();
+  }
+
+  @Benchmark
+  public Board parse() {
+    return new Board(this.fen,2,2,1,Positions.width(this.size),false);
+  }
+
+  @Benchmark
+  public String write() {
+    return this.board.toString();
+  }
+
+  @Benchmark
+  public StringBuilder append() {
+    //writing into a reused buffer, as a server sending many positions would
+    this.output.setLength(0);
+    return this.board.appendFen(this.output);
+  }
+}
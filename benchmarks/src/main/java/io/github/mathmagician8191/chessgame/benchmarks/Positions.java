@@ -0,0 +1,68 @@
+package io.github.mathmagician8191.chessgame.benchmarks;
+
+import io.github.mathmagician8191.chessgame.Board;
+import io.github.mathmagician8191.chessgame.Engine;
+import java.util.Arrays;
+
+public class Positions {
+  /*
+  Builds starting positions of any size so every benchmark uses the same ones
+  Pieces are placed from the edges inwards with the king in the middle
+  */
+
+  //pieces used for the back rank, from the edge towards the king
+  static final String STANDARD = "rnbq";
+  static final String FAIRY = "cazlihxfwm";
+
+  public static String fen(String size,String pieces) {
+    int width = width(size);
+    int height = height(size);
+    String set = pieces.equals("fairy") ? FAIRY : STANDARD;
+
+    //back rank, mirrored around the king
+    char[] backRank = new char[width];
+    int king = width/2;
+    backRank[king] = 'k';
+    for (int i=0;i<king;i++) {
+      char piece = set.charAt(i % set.length());
+      backRank[i] = piece;
+      if (width-1-i != king) {
+        backRank[width-1-i] = piece;
+      }
+    }
+
+    StringBuilder fen = new StringBuilder();
+    fen.append(new String(backRank)).append('/');
+    fen.append(repeat('p',width)).append('/');
+    for (int i=0;i<height-4;i++) {
+      fen.append(width).append('/');
+    }
+    fen.append(repeat('P',width)).append('/');
+    fen.append(new String(backRank).toUpperCase());
+    fen.append(" w KQkq - 0 1");
+    return fen.toString();
+  }
+
+  public static Board board(String size,String pieces) {
+    return new Board(fen(size,pieces),2,2,1,width(size),false);
+  }
+
+  public static Engine engine(String size,String pieces,int depth) {
+    String promotions = pieces.equals("fairy") ? "caz" : "qrbn";
+    return new Engine(fen(size,pieces),2,2,1,width(size),promotions,false,depth,2,true);
+  }
+
+  static int width(String size) {
+    return Integer.parseInt(size.substring(0,size.indexOf('x')));
+  }
+
+  static int height(String size) {
+    return Integer.parseInt(size.substring(size.indexOf('x')+1));
+  }
+
+  static String repeat(char letter,int count) {
+    char[] result = new char[count];
+    Arrays.fill(result,letter);
+    return new String(result);
+  }
+}
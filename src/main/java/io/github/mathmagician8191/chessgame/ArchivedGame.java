@@ -0,0 +1,102 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ArchivedGame {
+  /*
+  A finished or abandoned game: where it started, the moves in coordinate notation and the result
+  The text form is one line with the FEN, the variant rules, the moves and optionally the result
+  fen;pawnRow;pawnSquares;queenRookColumn;kingRookColumn;promotionOptions;friendlyFire;e2e4 e7e5 ... 1-0
+  */
+
+  //result when it isn't known
+  public static final int UNKNOWN = 2;
+
+  public final Game start;
+  public final List<String> moves;
+  public final int result; //-1=black win, 0=draw, 1=white win, UNKNOWN
+
+  //where the game is in an archive, -1 if it isn't in one
+  public final long offset;
+
+  public ArchivedGame(Game start,List<String> moves,int result,long offset) {
+    this.start = start;
+    this.moves = Collections.unmodifiableList(moves);
+    this.result = result;
+    this.offset = offset;
+  }
+
+  public static ArchivedGame parse(String line) {
+    String[] fields = line.split(";");
+    if (fields.length != 8) {
+      throw new IllegalArgumentException("expected the FEN, 6 variant fields and the moves");
+    }
+    Game start = new Game(fields[0].trim(),Integer.parseInt(fields[1].trim()),
+        Integer.parseInt(fields[2].trim()),Integer.parseInt(fields[3].trim()),
+        Integer.parseInt(fields[4].trim()),fields[5].trim(),Boolean.parseBoolean(fields[6].trim()));
+
+    ArrayList<String> moves = new ArrayList<>();
+    int result = UNKNOWN;
+    String moveText = fields[7].trim();
+    if (!moveText.isEmpty()) {
+      for (String move : moveText.split("\\s+")) {
+        moves.add(move);
+      }
+    }
+    if (!moves.isEmpty()) {
+      switch (moves.get(moves.size()-1)) {
+        case "1-0":
+          result = 1;
+          break;
+        case "0-1":
+          result = -1;
+          break;
+        case "1/2-1/2":
+          result = 0;
+          break;
+        case "*":
+          break;
+        default:
+          //no result at the end
+          return new ArchivedGame(start,moves,result,-1);
+      }
+      moves.remove(moves.size()-1);
+    }
+    return new ArchivedGame(start,moves,result,-1);
+  }
+
+  public Game replay() {
+    //the game after all the moves, IllegalArgumentException if one isn't legal
+    Game game = new Game(this.start);
+    for (String move : this.moves) {
+      if (!game.makeMove(move)) {
+        throw new IllegalArgumentException("illegal move " + move);
+      }
+    }
+    return game;
+  }
+
+  @Override
+  public String toString() {
+    Board board = this.start.position;
+    StringBuilder result = new StringBuilder();
+    board.appendFen(result).append(';').append(board.pawnRow).append(';').append(board.pawnSquares)
+        .append(';').append(board.queenRookColumn+1).append(';').append(board.kingRookColumn+1)
+        .append(';').append(this.start.promotionOptions).append(';').append(board.friendlyFire).append(';');
+    for (int i=0;i<this.moves.size();i++) {
+      result.append(i == 0 ? "" : " ").append(this.moves.get(i));
+    }
+    switch (this.result) {
+      case 1:
+        return result.append(" 1-0").toString();
+      case -1:
+        return result.append(" 0-1").toString();
+      case 0:
+        return result.append(" 1/2-1/2").toString();
+      default:
+        return result.toString();
+    }
+  }
+}
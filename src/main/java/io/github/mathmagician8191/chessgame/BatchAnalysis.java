@@ -0,0 +1,386 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BatchAnalysis {
+  /*
+  Analyses a stream of positions in parallel, one JSON object per line in and out
+  Input:  {"fen": "...", "pawnRow": 2, "pawnSquares": 2, "queenRookColumn": 1,
+           "kingRookColumn": 8, "promotionOptions": "qrbn", "friendlyFire": false,
+           "depth": 6, "nodes": 100000, "id": ...}
+  Output: {"id": ..., "fen": "...", "score": 25, "bestmove": "e2e4", "pv": [...], "nodes": 1234}
+  Only the FEN is required, the rules default to standard chess with the king's rook
+  in the last column, and the depth and node limit override the ones for the batch
+  The depth has to be at least 1. When the node limit stops the search before it finishes
+  depth 1 the move it was looking at is given without a score or pv
+  Results are written in input order, and at most a few positions per thread are in memory
+  at once so reading waits for the writer when it falls behind
+  If writing fails, reading stops and the positions still waiting are cancelled
+  */
+
+  final int depth;
+  final int quiescenceDepth;
+  final long nodes;
+  final int tableMegabytes;
+
+  //each worker keeps its table between positions
+  final ThreadLocal<TranspositionTable> tables;
+
+  public BatchAnalysis(int depth,int quiescenceDepth,long nodes,final int tableMegabytes) {
+    this.depth = depth;
+    this.quiescenceDepth = quiescenceDepth;
+    this.nodes = nodes;
+    this.tableMegabytes = tableMegabytes;
+    this.tables = new ThreadLocal<TranspositionTable>() {
+      @Override
+      protected TranspositionTable initialValue() {
+        return tableMegabytes > 0 ? new TranspositionTable(tableMegabytes) : null;
+      }
+    };
+  }
+
+  public void run(BufferedReader input,final Writer output,int threads) throws IOException,
+      InterruptedException {
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    final BlockingQueue<Future<String>> pending = new ArrayBlockingQueue<>(threads*4);
+    final Future<String> end = new FutureTask<>(new Callable<String>() {
+      @Override
+      public String call() {
+        return null;
+      }
+    });
+
+    //writes results in order while the positions are being read
+    final AtomicReference<IOException> writeError = new AtomicReference<>();
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            Future<String> result = pending.take();
+            if (result == end) {
+              break;
+            }
+            output.write(BatchAnalysis.get(result));
+            output.write('\n');
+          }
+          output.flush();
+        }
+        catch (IOException e) {
+          writeError.set(e);
+          //nothing will take the results now
+          Future<String> result;
+          while ((result = pending.poll()) != null) {
+            result.cancel(true);
+          }
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    },"batch-writer");
+    writer.start();
+
+    try {
+      String line;
+      while ((line = input.readLine()) != null && writeError.get() == null) {
+        final String request = line.trim();
+        if (request.isEmpty()) {
+          continue;
+        }
+        //blocks when the writer is too far behind
+        Future<String> result = workers.submit(new Callable<String>() {
+          @Override
+          public String call() {
+            return BatchAnalysis.this.analyse(request);
+          }
+        });
+        if (!BatchAnalysis.offer(pending,result,writeError)) {
+          break;
+        }
+      }
+      BatchAnalysis.offer(pending,end,writeError);
+      writer.join();
+    }
+    finally {
+      workers.shutdownNow();
+    }
+    if (writeError.get() != null) {
+      throw writeError.get();
+    }
+  }
+
+  static boolean offer(BlockingQueue<Future<String>> pending,Future<String> result,
+      AtomicReference<IOException> writeError) throws InterruptedException {
+    //waits for space in the queue, false if the writer has stopped so there will never be any
+    while (!pending.offer(result,100,TimeUnit.MILLISECONDS)) {
+      if (writeError.get() != null) {
+        result.cancel(true);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static String get(Future<String> result) {
+    try {
+      return result.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "{\"error\": \"interrupted\"}";
+    }
+    catch (ExecutionException e) {
+      return "{\"error\": " + BatchAnalysis.quote(String.valueOf(e.getCause())) + "}";
+    }
+  }
+
+  public String analyse(String request) {
+    HashMap<String,String> fields;
+    try {
+      fields = BatchAnalysis.parseObject(request);
+    }
+    catch (IllegalArgumentException e) {
+      return "{\"error\": " + BatchAnalysis.quote(e.getMessage()) + "}";
+    }
+    String id = fields.containsKey("id") ? fields.get("id") : "null";
+    String fen = fields.get("fen");
+    if (fen == null) {
+      return "{\"id\": " + id + ", \"error\": \"missing fen\"}";
+    }
+    fen = BatchAnalysis.unquote(fen);
+
+    Engine engine;
+    int depth;
+    long nodes;
+    try {
+      depth = fields.containsKey("depth") ? Integer.parseInt(fields.get("depth")) : this.depth;
+      nodes = fields.containsKey("nodes") ? Long.parseLong(fields.get("nodes")) : this.nodes;
+      int kingRookColumn = fields.containsKey("kingRookColumn") ?
+          Integer.parseInt(fields.get("kingRookColumn")) : 0;
+      int pawnRow = fields.containsKey("pawnRow") ? Integer.parseInt(fields.get("pawnRow")) : 2;
+      int pawnSquares = fields.containsKey("pawnSquares") ?
+          Integer.parseInt(fields.get("pawnSquares")) : 2;
+      boolean friendlyFire = Boolean.parseBoolean(fields.get("friendlyFire"));
+      if (kingRookColumn == 0) {
+        kingRookColumn = new Board(fen,pawnRow,pawnSquares,1,1,friendlyFire).width;
+      }
+      engine = new Engine(fen,pawnRow,pawnSquares,
+          fields.containsKey("queenRookColumn") ? Integer.parseInt(fields.get("queenRookColumn")) : 1,
+          kingRookColumn,
+          fields.containsKey("promotionOptions") ? BatchAnalysis.unquote(fields.get("promotionOptions")) : "qrbn",
+          friendlyFire,depth,this.quiescenceDepth,true);
+    }
+    catch (RuntimeException e) {
+      return "{\"id\": " + id + ", \"fen\": " + BatchAnalysis.quote(fen) + ", \"error\": \"invalid position\"}";
+    }
+    if (depth < 1 || nodes < 0) {
+      return "{\"id\": " + id + ", \"fen\": " + BatchAnalysis.quote(fen) + ", \"error\": " +
+          BatchAnalysis.quote(depth < 1 ? "depth must be at least 1" : "nodes can't be negative") + "}";
+    }
+    engine.setTable(this.tables.get());
+
+    //searched on this thread, the pool already runs one search per worker
+    Search search = new Search(engine,nodes > 0 ? Search.MAX_DEPTH : Math.min(depth,Search.MAX_DEPTH),null);
+    search.setNodeLimit(nodes);
+    search.run();
+
+    StringBuilder result = new StringBuilder("{\"id\": ").append(id).append(", \"fen\": ")
+        .append(BatchAnalysis.quote(fen));
+    List<String> pv = search.getPv();
+    if (pv.isEmpty()) {
+      //no iteration finished, the search still has the move it got to
+      Engine move = search.result;
+      if (move == null || move == engine) {
+        result.append(", \"bestmove\": null");
+      }
+      else {
+        result.append(", \"bestmove\": ")
+            .append(BatchAnalysis.quote(Board.moveToString(engine.position,move.position)));
+      }
+    }
+    else {
+      int mate = Search.mateIn(engine.position,search.getScore());
+      result.append(mate == 0 ? ", \"score\": " : ", \"mate\": ").append(mate == 0 ? search.getScore() : mate);
+      result.append(", \"bestmove\": ").append(BatchAnalysis.quote(pv.get(0))).append(", \"pv\": [");
+      for (int i=0;i<pv.size();i++) {
+        result.append(i == 0 ? "" : ", ").append(BatchAnalysis.quote(pv.get(i)));
+      }
+      result.append(']');
+    }
+    return result.append(", \"nodes\": ").append(search.getNodes()).append('}').toString();
+  }
+
+  static HashMap<String,String> parseObject(String json) {
+    //reads a flat JSON object, strings keep their quotes and other values are left as written
+    HashMap<String,String> fields = new HashMap<>();
+    int length = json.length();
+    int i = BatchAnalysis.skipSpace(json,0);
+    if (i >= length || json.charAt(i) != '{') {
+      throw new IllegalArgumentException("expected a JSON object");
+    }
+    i = BatchAnalysis.skipSpace(json,i+1);
+    if (i < length && json.charAt(i) == '}') {
+      return fields;
+    }
+    while (i < length) {
+      int keyEnd = BatchAnalysis.stringEnd(json,i);
+      String key = BatchAnalysis.unquote(json.substring(i,keyEnd));
+      i = BatchAnalysis.skipSpace(json,keyEnd);
+      if (i >= length || json.charAt(i) != ':') {
+        throw new IllegalArgumentException("expected : after " + key);
+      }
+      i = BatchAnalysis.skipSpace(json,i+1);
+      int valueEnd;
+      if (i < length && json.charAt(i) == '"') {
+        valueEnd = BatchAnalysis.stringEnd(json,i);
+      }
+      else {
+        valueEnd = i;
+        while (valueEnd < length && ",} \t".indexOf(json.charAt(valueEnd)) == -1) {
+          valueEnd++;
+        }
+      }
+      fields.put(key,json.substring(i,valueEnd));
+      i = BatchAnalysis.skipSpace(json,valueEnd);
+      if (i < length && json.charAt(i) == '}') {
+        return fields;
+      }
+      if (i >= length || json.charAt(i) != ',') {
+        throw new IllegalArgumentException("expected , or } after " + key);
+      }
+      i = BatchAnalysis.skipSpace(json,i+1);
+    }
+    throw new IllegalArgumentException("unterminated JSON object");
+  }
+
+  static int skipSpace(String json,int i) {
+    while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  static int stringEnd(String json,int start) {
+    //index after the closing quote of the string starting at start
+    if (start >= json.length() || json.charAt(start) != '"') {
+      throw new IllegalArgumentException("expected a string");
+    }
+    for (int i=start+1;i<json.length();i++) {
+      char letter = json.charAt(i);
+      if (letter == '\\') {
+        i++;
+      }
+      else if (letter == '"') {
+        return i+1;
+      }
+    }
+    throw new IllegalArgumentException("unterminated string");
+  }
+
+  static String unquote(String value) {
+    if (value.length() < 2 || value.charAt(0) != '"') {
+      return value;
+    }
+    StringBuilder result = new StringBuilder();
+    for (int i=1;i<value.length()-1;i++) {
+      char letter = value.charAt(i);
+      if (letter == '\\') {
+        i++;
+        char escaped = value.charAt(i);
+        switch (escaped) {
+          case 'n':
+            result.append('\n');
+            break;
+          case 't':
+            result.append('\t');
+            break;
+          case 'u':
+            result.append((char) Integer.parseInt(value.substring(i+1,i+5),16));
+            i += 4;
+            break;
+          default:
+            result.append(escaped);
+        }
+      }
+      else {
+        result.append(letter);
+      }
+    }
+    return result.toString();
+  }
+
+  static String quote(String value) {
+    StringBuilder result = new StringBuilder("\"");
+    for (int i=0;i<value.length();i++) {
+      char letter = value.charAt(i);
+      if (letter == '"' || letter == '\\') {
+        result.append('\\').append(letter);
+      }
+      else if (letter < ' ') {
+        result.append(String.format("\\u%04x",(int) letter));
+      }
+      else {
+        result.append(letter);
+      }
+    }
+    return result.append('"').toString();
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    //usage: BatchAnalysis [file] [-depth <n>] [-quiescence <n>] [-nodes <n>] [-threads <n>]
+    //  [-hash <megabytes>], reads standard input when there is no file
+    String file = null;
+    int depth = 4;
+    int quiescenceDepth = 3;
+    long nodes = 0;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int hashSize = 16;
+    for (int i=0;i<args.length;i++) {
+      switch (args[i]) {
+        case "-depth":
+          depth = Integer.parseInt(args[++i]);
+          break;
+        case "-quiescence":
+          quiescenceDepth = Integer.parseInt(args[++i]);
+          break;
+        case "-nodes":
+          nodes = Long.parseLong(args[++i]);
+          break;
+        case "-threads":
+          threads = Integer.parseInt(args[++i]);
+          break;
+        case "-hash":
+          hashSize = Integer.parseInt(args[++i]);
+          break;
+        default:
+          file = args[i];
+      }
+    }
+    InputStream in = file == null ? System.in : new FileInputStream(file);
+    try (BufferedReader input = new BufferedReader(new InputStreamReader(in,StandardCharsets.UTF_8))) {
+      Writer output = new BufferedWriter(new OutputStreamWriter(System.out,StandardCharsets.UTF_8));
+      new BatchAnalysis(depth,quiescenceDepth,nodes,hashSize).run(input,output,threads);
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package io.github.mathmagician8191.chessgame;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.BitSet;
 
 public class Board {
   /*
@@ -41,12 +44,41 @@ public class Board {
   public int[] whiteKingLocation;
   public int[] blackKingLocation;
   
+  //material signature, kept up to date whenever a square changes so nothing has to count pieces
+  //pieces of each letter for white then black, letters outside a-z are counted together,
+  //followed by the totals below
+  int[] material;
+  
+  //moves of the defined pieces on a board of this size
+  MoveTables moveTables;
+  
   //last move
   public int[] startSquare;
   public int[] endSquare;
   
+  //legal moves from each square numbered column*height+row, made by legalMoves and cleared when
+  //the position changes through the board's methods, null if they haven't been found
+  BitSet[] legalMoves;
+  
+  //where the totals are in the material signature
+  static final int LETTERS = 27;
+  static final int WHITE_PIECES = 2*LETTERS;
+  static final int BLACK_PIECES = WHITE_PIECES+1;
+  static final int MATING = WHITE_PIECES+2; //pieces that can mate alone
+  static final int MAJOR = WHITE_PIECES+3; //pieces that can mate a lone king, pawns need promoting
+  static final int MINOR = WHITE_PIECES+4; //pieces that need help to mate
+  static final int LIGHT_BOUND = WHITE_PIECES+5; //colour-bound pieces on light squares
+  static final int DARK_BOUND = WHITE_PIECES+6;
+  static final int BARRIERS = WHITE_PIECES+7;
+  static final int WHITE_LETTERS = WHITE_PIECES+8; //letters on the board as a set of PieceType.bit
+  static final int BLACK_LETTERS = WHITE_PIECES+9;
+  static final int MATERIAL_SIZE = WHITE_PIECES+10;
+  
   public Board(String fen,int pawnRow,int pawnSquares,int queenRookColumn,
       int kingRookColumn,boolean friendlyFire) {
+    Profiling.Listener listener = Profiling.listener;
+    long startTime = listener != null ? System.nanoTime() : 0;
+    
     this.gameOver = false;
     this.promotionAvailable = false;
     this.promotionSquare = new int[] {-1,-1};
@@ -58,123 +90,126 @@ public class Board {
     this.queenRookColumn = queenRookColumn-1;
     this.kingRookColumn = kingRookColumn-1;
     
-    //FEN processing
-    
-    //split the FEN into the different information it provides
-    String[] subsections = fen.split(" ");
-    
-    //figure out the number of rows on the board
-    String[] rows = subsections[0].split("/");
-    height = rows.length;
+    //FEN processing, read in place without splitting the string
     
-    //figure out the number of columns on the board
-    int rowLetters = rows[0].length();
-    width = 0;
+    //figure out the size of the board from the piece placement
+    int placementEnd = Board.fieldEnd(fen,0);
+    this.height = 1;
+    this.width = 0;
     int extraSquares = 0;
-    for (int i=0;i<rowLetters;i++) {
-      char piece = rows[0].charAt(i);
-      if (Character.isDigit(piece)) {
-        extraSquares *= 10;
-        extraSquares += Character.getNumericValue(piece);
-      }
-      else {
-        //add the squares from the number and the one from the piece
-        width += extraSquares + 1;
-        extraSquares = 0;
+    for (int i=0;i<placementEnd;i++) {
+      char piece = fen.charAt(i);
+      if (piece == '/') {
+        if (this.height == 1) {
+          this.width += extraSquares;
+        }
+        this.height++;
       }
-    }
-    width += extraSquares;
-    
-    //set up a loop to decode the FEN board state
-    this.boardstate = new Piece[width][height];
-    int row = height-1;
-    //decode the FEN board state
-    for (int i=row;i>=0;i--) {
-      int column = 0;
-      int squares = 0;
-      String rowData = rows[height-i-1];
-      int length = rowData.length();
-      for (int j=0;j<length;j++) {
-        char piece = rowData.charAt(j);
-        if (Character.isDigit(piece)) {
-          squares *= 10;
-          squares += Character.getNumericValue(piece);
+      else if (this.height == 1) {
+        if (piece >= '0' && piece <= '9') {
+          extraSquares = extraSquares*10 + piece-'0';
         }
         else {
-          if (squares > 0) {
-            for (int k=0;k<squares;k++) {
-              this.boardstate[column][i] = Piece.square;
-              column++;
-            }
-            squares = 0;
-          }
-          if (Character.toLowerCase(piece)=='k') {
-            //update king location
-            if (Character.toLowerCase(piece)==piece) {
-              this.blackKingLocation = new int[] {column,i};
-            }
-            else {
-              this.whiteKingLocation = new int[] {column,i};
-            }
-          }
-          this.boardstate[column][i] = new Piece(piece);
-          column++;
+          //add the squares from the number and the one from the piece
+          this.width += extraSquares + 1;
+          extraSquares = 0;
         }
       }
-      if (squares > 0) {
-        for (int j=0;j<squares;j++) {
-          this.boardstate[column][i] = Piece.square;
-          column++;
-        }
+    }
+    if (this.height == 1) {
+      this.width += extraSquares;
+    }
+    this.moveTables = MoveTables.of(this.width,this.height);
+    
+    //decode the board state, the first row in the FEN is the top of the board
+    this.boardstate = new Piece[this.width][this.height];
+    int row = this.height-1;
+    int column = 0;
+    int squares = 0;
+    for (int i=0;i<=placementEnd;i++) {
+      char piece = i < placementEnd ? fen.charAt(i) : '/';
+      if (piece >= '0' && piece <= '9') {
+        squares = squares*10 + piece-'0';
+        continue;
       }
+      for (int j=0;j<squares;j++) {
+        this.boardstate[column][row] = Piece.square;
+        column++;
+      }
+      squares = 0;
+      if (piece == '/') {
+        row--;
+        column = 0;
+        continue;
+      }
+      if (piece == 'k') {
+        this.blackKingLocation = new int[] {column,row};
+      }
+      else if (piece == 'K') {
+        this.whiteKingLocation = new int[] {column,row};
+      }
+      this.boardstate[column][row] = Piece.of(piece);
+      column++;
     }
     
     //side to move
-    this.toMove = subsections[1].equals("w");
-
+    int start = placementEnd+1;
+    int end = Board.fieldEnd(fen,start);
+    this.toMove = end-start == 1 && fen.charAt(start) == 'w';
+    
     //castling rights
+    start = end+1;
+    end = Board.fieldEnd(fen,start);
     this.castleRights = new boolean[]{false,false,false,false};
-    if (!subsections[2].equals("-")) {
-      int castles = subsections[2].length();
-      for (int i=0;i<castles;i++) {
-        char castle = subsections[2].charAt(i);
-        switch (castle) {
-          case 'K':
-            this.castleRights[0] = true;
-            break;
-          case 'Q':
-            this.castleRights[1] = true;
-            break;
-          case 'k':
-            this.castleRights[2] = true;
-            break;
-          case 'q':
-            this.castleRights[3] = true;
-            break;
-        }
+    for (int i=start;i<end;i++) {
+      switch (fen.charAt(i)) {
+        case 'K':
+          this.castleRights[0] = true;
+          break;
+        case 'Q':
+          this.castleRights[1] = true;
+          break;
+        case 'k':
+          this.castleRights[2] = true;
+          break;
+        case 'q':
+          this.castleRights[3] = true;
+          break;
       }
     }
-
+    
     //en passsant square (if present). {-1,-1,-1} means no en passant available
+    start = end+1;
+    end = Board.fieldEnd(fen,start);
     this.enPassant = new int[]{-1,-1,-1};
-    if (!subsections[3].equals("-")) {
-      int[] coordinates = Board.algebraicToNumber(subsections[3]);
+    if (end-start != 1 || fen.charAt(start) != '-') {
+      int[] coordinates = Board.algebraicToNumber(fen,start,end);
       this.enPassant = new int[] {coordinates[0],coordinates[1],coordinates[1]};
     }
-
+    
     //half move clock
-    this.halfmoveClock = Integer.parseInt(subsections[4]);
-
+    start = end+1;
+    end = Board.fieldEnd(fen,start);
+    this.halfmoveClock = Board.parseNumber(fen,start,end);
+    
     //full moves
-    this.moves = Integer.parseInt(subsections[5]);
+    start = end+1;
+    end = Board.fieldEnd(fen,start);
+    this.moves = Board.parseNumber(fen,start,end);
     
+    this.countMaterial();
     this.detectCheck();
+    
+    if (listener != null) {
+      listener.fenParsed(this,fen.length(),System.nanoTime()-startTime);
+    }
   }
   
   public Board(Board original) {
     //shallow copies of variables that pass by value
     this.width = original.width;
     this.height = original.height;
+    this.moveTables = original.moveTables;
     
     this.toMove = original.toMove;
     
@@ -196,6 +231,9 @@ public class Board {
     this.startSquare = original.startSquare;
     this.endSquare = original.endSquare;
     
+    //the same position has the same moves, the sets are never changed once found
+    this.legalMoves = original.legalMoves;
+    
     //deep copies of variables that pass by reference
     this.castleRights = new boolean[] {
       original.castleRights[0],
@@ -224,6 +262,57 @@ public class Board {
     for (int i=0;i<this.width;i++) {
       System.arraycopy(original.boardstate[i],0,this.boardstate[i],0,this.height);
     }
+    this.material = new int[MATERIAL_SIZE];
+    System.arraycopy(original.material,0,this.material,0,MATERIAL_SIZE);
+  }
+  
+  public void copyFrom(Board original) {
+    //copies a position on a board of the same size and rules into this one without allocating
+    //the square arrays are shared, moves replace them rather than changing them
+    this.toMove = original.toMove;
+    this.halfmoveClock = original.halfmoveClock;
+    this.moves = original.moves;
+    this.inCheck = original.inCheck;
+    this.gameOver = original.gameOver;
+    this.promotionAvailable = original.promotionAvailable;
+    this.promotionSquare = original.promotionSquare;
+    this.startSquare = original.startSquare;
+    this.endSquare = original.endSquare;
+    this.enPassant = original.enPassant;
+    this.whiteKingLocation = original.whiteKingLocation;
+    this.blackKingLocation = original.blackKingLocation;
+    this.legalMoves = original.legalMoves;
+    System.arraycopy(original.castleRights,0,this.castleRights,0,4);
+    for (int i=0;i<this.width;i++) {
+      System.arraycopy(original.boardstate[i],0,this.boardstate[i],0,this.height);
+    }
+    System.arraycopy(original.material,0,this.material,0,MATERIAL_SIZE);
+  }
+  
+  public Board(ByteBuffer buffer) {
+    //reads a board written by write
+    this.width = Board.readInt(buffer);
+    this.height = Board.readInt(buffer);
+    this.pawnRow = Board.readInt(buffer);
+    this.pawnSquares = Board.readInt(buffer);
+    this.queenRookColumn = Board.readInt(buffer);
+    this.kingRookColumn = Board.readInt(buffer);
+    this.friendlyFire = buffer.get() != 0;
+    this.moveTables = MoveTables.of(this.width,this.height);
+    this.readState(buffer);
+  }
+  
+  Board(Board variant,ByteBuffer buffer) {
+    //reads a position written by writeState with the same size and rules as another board
+    this.width = variant.width;
+    this.height = variant.height;
+    this.pawnRow = variant.pawnRow;
+    this.pawnSquares = variant.pawnSquares;
+    this.queenRookColumn = variant.queenRookColumn;
+    this.kingRookColumn = variant.kingRookColumn;
+    this.friendlyFire = variant.friendlyFire;
+    this.moveTables = variant.moveTables;
+    this.readState(buffer);
   }
   
   @Override
@@ -271,151 +360,326 @@ public class Board {
     return Arrays.deepEquals(this.boardstate, other.boardstate);
   }
   
+  public long hash() {
+    //64-bit key for the position, the same on every run so it can be stored
+    //includes the variant rules so positions from different variants don't collide
+    long hash = Board.mix(((long) this.width << 32) + this.height);
+    hash ^= Board.mix(0x100000000L + ((long) this.pawnRow << 24) + (this.pawnSquares << 16) +
+        (this.queenRookColumn << 8) + this.kingRookColumn + (this.friendlyFire ? 1L << 40 : 0));
+    for (int i=0;i<this.width;i++) {
+      for (int j=0;j<this.height;j++) {
+        Piece piece = this.boardstate[i][j];
+        if (piece.isPiece) {
+          hash ^= Board.pieceKey(piece,i*this.height+j);
+        }
+      }
+    }
+    if (this.toMove) {
+      hash ^= 0x5bd1e9955bd1e995L;
+    }
+    for (int i=0;i<4;i++) {
+      if (this.castleRights[i]) {
+        hash ^= Board.mix(0x200000000L + i);
+      }
+    }
+    if (this.enPassant[0] != -1) {
+      hash ^= Board.mix(0x300000000L + ((long) this.enPassant[0] << 16) + this.enPassant[1]);
+    }
+    if (this.promotionAvailable) {
+      hash ^= Board.mix(0x400000000L);
+    }
+    return hash;
+  }
+  
+  static long pieceKey(Piece piece,int square) {
+    //key for a piece on a square, squares are numbered column by column
+    long letter = (piece.letter << 1) + (piece.side == 1 ? 1 : 0);
+    return Board.mix((letter << 40) + square);
+  }
+  
+  static long mix(long z) {
+    //splitmix64 finaliser, spreads any input over all 64 bits
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+  
   @Override
   public String toString() {
-    String result = "";
+    return this.appendFen(new StringBuilder(this.width*this.height + 32)).toString();
+  }
+  
+  public void writeFen(Appendable out) throws IOException {
+    if (out instanceof StringBuilder) {
+      this.appendFen((StringBuilder) out);
+    }
+    else {
+      out.append(this.appendFen(new StringBuilder(this.width*this.height + 32)));
+    }
+  }
+  
+  public StringBuilder appendFen(StringBuilder result) {
     //piece arrangement
-    int row = this.height-1;
-    int column = 0;
-    while (row>=0) {
+    for (int row=this.height-1;row>=0;row--) {
       int emptySquares = 0;
-      while (column < width) {
+      for (int column=0;column<this.width;column++) {
         Piece piece = this.boardstate[column][row];
         if (piece.isPiece) {
-          if (emptySquares >  0) {
-            result += Integer.toString(emptySquares);
+          if (emptySquares > 0) {
+            result.append(emptySquares);
             emptySquares = 0;
           }
-          result += piece.side==1 ? Character.toUpperCase(piece.letter) : piece.letter;
+          result.append(piece.side==1 ? Character.toUpperCase(piece.letter) : piece.letter);
         }
         else {
           emptySquares++;
         }
-        column++;
       }
-      if (emptySquares >  0) {
-        result += Integer.toString(emptySquares);
+      if (emptySquares > 0) {
+        result.append(emptySquares);
+      }
+      if (row > 0) {
+        result.append('/');
       }
-      result += "/";
-      row--;
-      column = 0;
     }
-
-    //remove trailing slash
-    result = result.substring(0,result.length()-1);
-
+    
     //side to move
-    result += this.toMove ? " w " : " b ";
-
+    result.append(this.toMove ? " w " : " b ");
+    
     //castling rights
-    String castleRooks = "";
-    String[] rooks = {"K","Q","k","q"};
+    boolean castling = false;
+    String rooks = "KQkq";
     for (int i=0;i<4;i++) {
-      if (castleRights[i]) {
-        castleRooks += rooks[i];
+      if (this.castleRights[i]) {
+        result.append(rooks.charAt(i));
+        castling = true;
       }
     }
-    result += castleRooks;
-
-    if (castleRooks.equals("")) {
-      result += "-";
+    if (!castling) {
+      result.append('-');
     }
-
+    
     //en passant square
-    if (Arrays.equals(this.enPassant,new int[]{-1,-1,-1})) {
-      result += " -";
+    result.append(' ');
+    if (this.enPassant[0] == -1) {
+      result.append('-');
     }
     else {
-      result += " " + numberToAlgebraic(this.enPassant);
+      Board.appendSquare(result,this.enPassant[0],this.enPassant[1]);
     }
-
+    
     //half/full move clock
-    result += " " + Integer.toString(this.halfmoveClock) + " " +
-        Integer.toString(this.moves);
+    return result.append(' ').append(this.halfmoveClock).append(' ').append(this.moves);
+  }
+  
+  static int fieldEnd(String fen,int start) {
+    //end of the FEN field starting at start
+    if (start >= fen.length()) {
+      throw new IllegalArgumentException("FEN is missing fields: " + fen);
+    }
+    int end = fen.indexOf(' ',start);
+    return end == -1 ? fen.length() : end;
+  }
+  
+  static int parseNumber(String text,int start,int end) {
+    if (start >= end || end-start > 9) {
+      throw new NumberFormatException("bad number in " + text);
+    }
+    int result = 0;
+    for (int i=start;i<end;i++) {
+      char digit = text.charAt(i);
+      if (digit < '0' || digit > '9') {
+        throw new NumberFormatException("bad number in " + text);
+      }
+      result = result*10 + digit-'0';
+    }
     return result;
   }
-
+  
   //converts algebraic notation into lookup coordinates
+  //columns after z are aa, ab and so on
   public static int[] algebraicToNumber(String algebraic) {
-    int[] result = new int[2];
-    //find index of letter in the alphabet
-    result[0] = ((int) algebraic.charAt(0))-97;
+    return Board.algebraicToNumber(algebraic,0,algebraic.length());
+  }
+  
+  static int[] algebraicToNumber(String text,int start,int end) {
+    int column = 0;
+    int i = start;
+    while (i < end && text.charAt(i) >= 'a' && text.charAt(i) <= 'z') {
+      column = column*26 + text.charAt(i)-'a'+1;
+      i++;
+    }
+    if (i == start) {
+      throw new IllegalArgumentException("no column in " + text.substring(start,end));
+    }
     //-1 to shift from 1-indexed to 0-indexed
-    result[1] = Integer.parseInt(algebraic.substring(1))-1;
-    return result;
+    return new int[] {column-1,Board.parseNumber(text,i,end)-1};
   }
 
   //converts coordinates to algebraic
   public static String numberToAlgebraic(int[] number) {
-    //TODO: make work for values more than 25
-    // (then update decode function to match)
-    String result = String.valueOf((char) (number[0]+97));
-    result += Integer.toString(number[1]+1);
-    return result;
+    return Board.appendSquare(new StringBuilder(6),number[0],number[1]).toString();
   }
   
-  public Board getMove(int[] startSquare,int[] endSquare) {
-    if (this.gameOver || this.promotionAvailable) {
-      return null;
+  static StringBuilder appendSquare(StringBuilder result,int column,int row) {
+    return Board.appendColumn(result,column).append(row+1);
+  }
+  
+  static StringBuilder appendColumn(StringBuilder result,int column) {
+    //a to z, then aa to az, ba and so on
+    if (column >= 26) {
+      Board.appendColumn(result,column/26-1);
     }
-    
-    if (endSquare[0]<0||endSquare[1]<0||endSquare[0]>=this.width||endSquare[1]>=this.height) {
-      //end Square is out-of-bounds
-      return null;
+    return result.append((char) ('a' + column%26));
+  }
+
+  //converts coordinate notation e.g. e2e4 to the start and end squares, null if it isn't valid
+  //any promotion letter at the end is ignored
+  public static int[][] parseMove(String move) {
+    int length = move.length();
+    //the first square ends after the digits following its letter
+    int split = 0;
+    while (split < length && Character.isLetter(move.charAt(split))) {
+      split++;
     }
-    
-    if (Arrays.equals(startSquare,endSquare)) {
+    while (split < length && Character.isDigit(move.charAt(split))) {
+      split++;
+    }
+    int end = split;
+    while (end < length && Character.isLetter(move.charAt(end))) {
+      end++;
+    }
+    int digits = end;
+    while (end < length && Character.isDigit(move.charAt(end))) {
+      end++;
+    }
+    if (split == 0 || digits == split || end == digits || !Character.isDigit(move.charAt(split-1))) {
       return null;
     }
-    
-    Piece piece = this.getSquare(startSquare[0],startSquare[1]);
-    Piece capture = this.boardstate[endSquare[0]][endSquare[1]];
+    return new int[][] {
+      algebraicToNumber(move.substring(0,split)),
+      algebraicToNumber(move.substring(split,end))
+    };
+  }
 
-    //test to make sure you're moving your own piece
-    if (piece.side != (toMove ? 1 : -1)) {
-      return null;
+  //converts the move between 2 positions to coordinate notation e.g. e2e4 or e7e8q
+  public static String moveToString(Board before,Board after) {
+    StringBuilder result = new StringBuilder(12);
+    Board.appendSquare(result,after.startSquare[0],after.startSquare[1]);
+    Board.appendSquare(result,after.endSquare[0],after.endSquare[1]);
+    Piece moved = before.boardstate[after.startSquare[0]][after.startSquare[1]];
+    Piece arrived = after.boardstate[after.endSquare[0]][after.endSquare[1]];
+    if (moved.letter != arrived.letter) {
+      //the piece was promoted
+      result.append(arrived.letter);
     }
+    return result.toString();
+  }
 
-    //test if trying to capture own piece
-    if (capture.side == piece.side) {
-      if (!friendlyFire || capture.letter == 'k') {
-        return null;
-      }
+  public Board getMove(int[] startSquare,int[] endSquare) {
+    if (!this.isPseudoLegal(startSquare,endSquare)) {
+      return null;
     }
     
-    boolean result = this.validSquare(startSquare,endSquare,piece.letter,piece.side,
-        capture);
+    //test for check
+    Board moved = new Board(this);
+    moved.movePiece(startSquare, endSquare);
+    return !this.keepsKingSafe(startSquare,endSquare) && moved.leftInCheck() ? null : moved;
+  }
+  
+  //boolean returns whether the move is legal
+  public boolean isMoveValid(int[] startSquare,int[] endSquare) {
+    //return this.getMove(startSquare, endSquare) != null; //3% slower
     
-    if (result) {
-      //test for check
-      Board moved = new Board(this);
-      moved.movePiece(startSquare, endSquare);
-      if (this.toMove) {
-        if (moved.isAttacked(moved.whiteKingLocation,moved.toMove)) {
-          return null;
-        }
-        else {
-          return moved;
-        }
-      }
-      else {
-        if (moved.isAttacked(moved.blackKingLocation, moved.toMove)) {
-          return null;
+    //a lookup once the moves have been found
+    if (this.legalMoves != null) {
+      return this.isLegal(startSquare,endSquare);
+    }
+    
+    if (!this.isPseudoLegal(startSquare,endSquare)) {
+      return false;
+    }
+    if (this.keepsKingSafe(startSquare,endSquare)) {
+      return true;
+    }
+    
+    //test for check
+    Board moved = new Board(this);
+    moved.movePiece(startSquare, endSquare);
+    return !moved.leftInCheck();
+  }
+  
+  public BitSet legalMoves(int[] square) {
+    //squares the piece on a square can legally move to, numbered column*height+row
+    //all the moves in the position are found on the first call and kept until it changes
+    BitSet moves = new BitSet(this.width*this.height);
+    if (square[0]<0||square[1]<0||square[0]>=this.width||square[1]>=this.height ||
+        this.gameOver || this.promotionAvailable) {
+      return moves;
+    }
+    moves.or(this.findLegalMoves()[square[0]*this.height+square[1]]);
+    return moves;
+  }
+  
+  boolean isLegal(int[] startSquare,int[] endSquare) {
+    //isMoveValid as a lookup in the moves found by findLegalMoves
+    if (this.gameOver || this.promotionAvailable ||
+        startSquare[0]<0||startSquare[1]<0||startSquare[0]>=this.width||startSquare[1]>=this.height ||
+        endSquare[0]<0||endSquare[1]<0||endSquare[0]>=this.width||endSquare[1]>=this.height) {
+      return false;
+    }
+    return this.findLegalMoves()[startSquare[0]*this.height+startSquare[1]]
+        .get(endSquare[0]*this.height+endSquare[1]);
+  }
+  
+  BitSet[] findLegalMoves() {
+    //every legal move in the position, the ones that could expose the king are tried on one scratch board
+    BitSet[] legalMoves = this.legalMoves;
+    if (legalMoves != null) {
+      return legalMoves;
+    }
+    legalMoves = new BitSet[this.width*this.height];
+    Board moved = null;
+    int side = this.toMove ? 1 : -1;
+    for (int i=0;i<this.width;i++) {
+      for (int j=0;j<this.height;j++) {
+        BitSet moves = new BitSet(this.width*this.height);
+        legalMoves[i*this.height+j] = moves;
+        Piece piece = this.boardstate[i][j];
+        if (!piece.isPiece || piece.side != side) {
+          continue;
         }
-        else {
-          return moved;
+        int[] startSquare = new int[] {i,j};
+        for (int k=0;k<this.width;k++) {
+          for (int l=0;l<this.height;l++) {
+            int[] endSquare = new int[] {k,l};
+            if (!this.isPseudoLegal(startSquare,endSquare)) {
+              continue;
+            }
+            if (this.keepsKingSafe(startSquare,endSquare)) {
+              moves.set(k*this.height+l);
+              continue;
+            }
+            if (moved == null) {
+              moved = new Board(this);
+            }
+            else {
+              moved.copyFrom(this);
+            }
+            moved.movePiece(startSquare,endSquare);
+            if (!moved.leftInCheck()) {
+              moves.set(k*this.height+l);
+            }
+          }
         }
       }
     }
-    else {
-      return null;
-    }
+    this.legalMoves = legalMoves;
+    return legalMoves;
   }
   
-  //boolean returns whether the move is legal
-  public boolean isMoveValid(int[] startSquare,int[] endSquare) {
-    //return this.getMove(startSquare, endSquare) != null; //3% slower
-    
+  boolean isPseudoLegal(int[] startSquare,int[] endSquare) {
+    //whether the piece can make the move, ignoring whether it leaves the king in check
     if (this.gameOver || this.promotionAvailable) {
       return false;
     }
@@ -444,23 +708,44 @@ public class Board {
       }
     }
     
-    boolean result = this.validSquare(startSquare,endSquare,piece.letter,piece.side,
-        capture);
-    
-    if (result) {
-      //test for check
-      Board moved = new Board(this);
-      moved.movePiece(startSquare, endSquare);
-      if (this.toMove) {
-        return !moved.isAttacked(moved.whiteKingLocation,moved.toMove);
-      }
-      else {
-        return !moved.isAttacked(moved.blackKingLocation, moved.toMove);
-      }
+    return this.validSquare(startSquare,endSquare,piece.letter,piece.side,capture);
+  }
+  
+  boolean leftInCheck() {
+    //whether the side that just moved left its own king attacked
+    return this.toMove ? this.isAttacked(this.blackKingLocation,this.toMove) :
+        this.isAttacked(this.whiteKingLocation,this.toMove);
+  }
+  
+  boolean keepsKingSafe(int[] startSquare,int[] endSquare) {
+    //whether a pseudo-legal move can't leave the king attacked, so it doesn't need to be made to test it
+    //when not in check, a piece other than the king or a pawn only exposes the king by leaving a line
+    //from it that an enemy piece rides along, it can't uncover a leap and it blocks any line it captures on
+    if (this.inCheck) {
+      return false;
     }
-    else {
+    char letter = this.boardstate[startSquare[0]][startSquare[1]].letter;
+    if (letter == 'k' || letter == 'p') {
       return false;
     }
+    int[] king = this.toMove ? this.whiteKingLocation : this.blackKingLocation;
+    int dx = startSquare[0]-king[0];
+    int dy = startSquare[1]-king[1];
+    MoveTables tables = this.moveTables;
+    int letters = this.material[this.toMove ? BLACK_LETTERS : WHITE_LETTERS];
+    int[] rideLetters = tables.rideLetters;
+    for (int i=0;i<rideLetters.length;i++) {
+      if ((rideLetters[i] & letters) != 0) {
+        //the piece is some number of steps along the ride from the king
+        int x = tables.rideX[i];
+        int y = tables.rideY[i];
+        int steps = x != 0 ? dx/x : dy/y;
+        if (steps > 0 && steps*x == dx && steps*y == dy) {
+          return false;
+        }
+      }
+    }
+    return true;
   }
   
   public boolean validSquare(int[] startSquare,int[]endSquare,char letter,
@@ -469,23 +754,6 @@ public class Board {
     int rowDiff = Math.abs(startSquare[1]-endSquare[1]);
     int columnDiff = Math.abs(startSquare[0]-endSquare[0]);
     switch (letter) {
-      //jumping pieces
-      case 'n':
-        return (rowDiff==2 && columnDiff==1) || (rowDiff==1 && columnDiff==2);
-      case 'l':
-        return (rowDiff==3 && columnDiff==1) || (rowDiff==1 && columnDiff==3);
-      case 'z':
-        return (rowDiff==3 && columnDiff==2) || (rowDiff==2 && columnDiff==3);
-      case 'x':
-        return rowDiff<=1 && columnDiff <= 1;
-      case 'f':
-        return rowDiff==1 && columnDiff==1;
-      case 'w':
-        return (rowDiff==0 && columnDiff==1) || (rowDiff==1 && columnDiff==0);
-      case 'h':
-        return (rowDiff==columnDiff && rowDiff<=2) || (rowDiff==0 && columnDiff<=2) ||
-            (columnDiff==0 && rowDiff <=2);
-      
       //pawn
       case 'p':
         //move forward test (columns are the same)
@@ -593,58 +861,21 @@ public class Board {
           }
         }
       
-      //ray attack pieces
-      case 'b':
-        if (rowDiff==columnDiff) {
-          //test for pieces in the way
-          int squaresMoved = rowDiff;
-          return validRay(startSquare,endSquare,squaresMoved);
-        }
-        else {
-          //not diagonal
-          return false;
-        }
-      case 'r':
-        if (columnDiff==0 || rowDiff==0) {
-          //test for pieces in the way
-          int squaresMoved = Math.max(columnDiff,rowDiff);
-          return validRay(startSquare,endSquare,squaresMoved);
-        }
-        else {
-          //not straight line
-          return false;
-        }
-      case 'i':
-        //TODO: add nightirder moves
-        if (rowDiff==2*columnDiff || columnDiff==2*rowDiff) {
-          //moving in a 2-1 ratio, need to check for pieces in the way
-          int squaresMoved = Math.min(rowDiff,columnDiff);
-          return validRay(startSquare,endSquare,squaresMoved);
-        }
-        return false;
-      
-      //combination movers
-      case 'q':
-        return (validSquare(startSquare,endSquare,'b',side,capture))
-            || (validSquare(startSquare,endSquare,'r',side,capture));
-      case 'a':
-        return (validSquare(startSquare,endSquare,'b',side,capture))
-            || (validSquare(startSquare,endSquare,'n',side,capture));
-      case 'c':
-        return (validSquare(startSquare,endSquare,'r',side,capture))
-            || (validSquare(startSquare,endSquare,'n',side,capture));
-      case 'm':
-        return (validSquare(startSquare,endSquare,'b',side,capture))
-            || (validSquare(startSquare,endSquare,'r',side,capture))
-            || (validSquare(startSquare,endSquare,'n',side,capture));
-      
       //obstacle
       case 'o':
         return !capture.isPiece;
       
-      //any other piece we don't know, so it can go wherever
+      //pieces defined by their moves, from the tables for this board size
       default:
-        return true;
+        if (letter >= 128 || this.moveTables.moves[letter] == null) {
+          //any other piece we don't know, so it can go wherever
+          return true;
+        }
+        int squaresMoved = this.moveTables.move(letter,startSquare,endSquare);
+        if (squaresMoved == MoveTables.LEAP) {
+          return true;
+        }
+        return squaresMoved > 0 && this.validRay(startSquare,endSquare,squaresMoved);
     }
   }
   
@@ -664,104 +895,17 @@ public class Board {
   
   public boolean isAttacked(int[] square,boolean side) {
     int direction = side ? 1 : -1;
+    MoveTables tables = this.moveTables;
+    //ways of moving that no piece of the side on the board has are skipped
+    int letters = this.material[side ? WHITE_LETTERS : BLACK_LETTERS];
     
     //test for jump attacks
-    Piece[] knightJumps = this.allJumps(square, 2, 1);
-    int knightJumpCount = knightJumps.length;
-    for (int i=0;i<knightJumpCount;i++) {
-      Piece jumpTarget = knightJumps[i];
-      if (jumpTarget.side==direction) {
-        switch (jumpTarget.letter) {
-          case 'n':
-          case 'c':
-          case 'a':
-          case 'i':
-          case 'm':
-            return true;
-        }
-      }
-    }
-    
-    Piece[] camelJumps = this.allJumps(square, 3, 1);
-    int camelJumpCount = camelJumps.length;
-    for (int i=0;i<camelJumpCount;i++) {
-      Piece jumpTarget = camelJumps[i];
-      if (jumpTarget.side==direction) {
-        switch (jumpTarget.letter) {
-          case 'l':
-            return true;
-        }
-      }
-    }
-    
-    Piece[] zebraJumps = this.allJumps(square, 3, 2);
-    int zebraJumpCount = zebraJumps.length;
-    for (int i=0;i<zebraJumpCount;i++) {
-      Piece jumpTarget = zebraJumps[i];
-      if (jumpTarget.side==direction) {
-        switch (jumpTarget.letter) {
-          case 'z':
-            return true;
-        }
-      }
-    }
-    
-    Piece[] straightJumps = this.allJumps(square, 1, 0);
-    int straightJumpCount = straightJumps.length;
-    for (int i=0;i<straightJumpCount;i++) {
-      Piece jumpTarget = straightJumps[i];
-      if (jumpTarget.side==direction) {
-        switch (jumpTarget.letter) {
-          case 'h':
-          case 'x':
-          case 'w':
-          case 'k':
-          case 'r':
-          case 'q':
-          case 'c':
-          case 'm':
-            return true;
-        }
-      }
-    }
-    Piece[] straighterJumps = this.allJumps(square, 2, 0);
-    int straighterJumpCount = straighterJumps.length;
-    for (int i=0;i<straighterJumpCount;i++) {
-      Piece jumpTarget = straighterJumps[i];
-      if (jumpTarget.side==direction) {
-        switch (jumpTarget.letter) {
-          case 'h':
-            return true;
-        }
-      }
-    }
-    
-    Piece[] diagonalJumps = this.allJumps(square, 1, 1);
-    int diagonalJumpCount = diagonalJumps.length;
-    for (int i=0;i<diagonalJumpCount;i++) {
-      Piece jumpTarget = diagonalJumps[i];
-      if (jumpTarget.side==direction) {
-        switch (jumpTarget.letter) {
-          case 'h':
-          case 'x':
-          case 'f':
-          case 'k':
-          case 'b':
-          case 'q':
-          case 'a':
-          case 'm':
-            return true;
-        }
-      }
-    }
-    Piece[] diagonalerJumps = this.allJumps(square, 2, 2);
-    int diagonalerJumpCount = diagonalerJumps.length;
-    for (int i=0;i<diagonalerJumpCount;i++) {
-      Piece jumpTarget = diagonalerJumps[i];
-      if (jumpTarget.side==direction) {
-        switch (jumpTarget.letter) {
-          case 'h':
-            return true;
+    int[] leapLetters = tables.leapLetters;
+    for (int i=0;i<leapLetters.length;i++) {
+      if ((leapLetters[i] & letters) != 0) {
+        Piece jumpTarget = this.getSquare(square[0]+tables.leapX[i],square[1]+tables.leapY[i]);
+        if (jumpTarget.side==direction && (leapLetters[i] & PieceType.bit(jumpTarget.letter)) != 0) {
+          return true;
         }
       }
     }
@@ -773,47 +917,12 @@ public class Board {
       return true;
     }
     
-    //rook attacks
-    Piece[] rookRays = this.allRays(square,1,0);
-    int rookRayCount = rookRays.length;
-    for (int i=0;i<rookRayCount;i++) {
-      Piece rayTarget = rookRays[i];
-      if (rayTarget.side==direction) {
-        switch (rayTarget.letter) {
-          case 'r':
-          case 'q':
-          case 'c':
-          case 'm':
-            //a rook-attacking piece is on a straight line
-            return true;
-        }
-      }
-    }
-    
-    //bishop attacks
-    Piece[] bishopRays = this.allRays(square,1,1);
-    int bishopRayCount = bishopRays.length;
-    for (int i=0;i<bishopRayCount;i++) {
-      Piece rayTarget = bishopRays[i];
-      if (rayTarget.side==direction) {
-        switch (rayTarget.letter) {
-          case 'b':
-          case 'q':
-          case 'a':
-          case 'm':
-            //a bishop-attacking piece is on a diagonal
-            return true;
-        }
-      }
-    }
-    
-    //nightrider attacks
-    Piece[] nightriderRays = this.allRays(square,2,1);
-    int nightriderRayCount = nightriderRays.length;
-    for (int i=0;i<nightriderRayCount;i++) {
-      Piece rayTarget = nightriderRays[i];
-      if (rayTarget.side==direction) {
-        if (rayTarget.letter=='i') {
+    //ray attacks
+    int[] rideLetters = tables.rideLetters;
+    for (int i=0;i<rideLetters.length;i++) {
+      if ((rideLetters[i] & letters) != 0) {
+        Piece rayTarget = this.rayTarget(square,tables.rideX[i],tables.rideY[i],tables.rideLimit[i]);
+        if (rayTarget.side==direction && (rideLetters[i] & PieceType.bit(rayTarget.letter)) != 0) {
           return true;
         }
       }
@@ -872,9 +981,13 @@ public class Board {
   }
   
   public Piece rayTarget(int[] square,int dx,int dy) {
-    //follow ray until either a piece ir the edge of the board is reached
+    return this.rayTarget(square,dx,dy,0);
+  }
+  
+  Piece rayTarget(int[] square,int dx,int dy,int limit) {
+    //follow ray until either a piece ir the edge of the board is reached, or limit squares if it isn't 0
     int i=0;
-    while (true) {
+    while (limit == 0 || i < limit) {
       i++;
       int column = square[0]+i*dx;
       int row = square[1]+i*dy;
@@ -887,6 +1000,7 @@ public class Board {
         return testLocation;
       }
     }
+    return Piece.square;
   }
   
   public Piece getSquare(int x,int y) {
@@ -902,6 +1016,12 @@ public class Board {
   }
 
   public void movePiece(int[] startSquare,int[] endSquare) {
+    this.movePiece(startSquare,endSquare,null);
+  }
+  
+  void movePiece(int[] startSquare,int[] endSquare,UndoRecord undo) {
+    //the squares changed are recorded in undo unless it is null
+    this.legalMoves = null;
     this.halfmoveClock++;
     this.startSquare = startSquare;
     this.endSquare = endSquare;
@@ -930,7 +1050,7 @@ public class Board {
         if (columnDiff==1 && !this.boardstate[endSquare[0]][endSquare[1]].isPiece) {
           //en passant capture has occured
           int rowOfPawn = this.toMove ? this.enPassant[2]+1 : this.enPassant[1]-1;
-          this.boardstate[endSquare[0]][rowOfPawn] = Piece.square;
+          this.setSquare(endSquare[0],rowOfPawn,Piece.square,undo);
         }
         
         //en passant square detection
@@ -984,14 +1104,14 @@ public class Board {
           if (endSquare[0]>startSquare[0]) {
             //kingside castle
             Piece kingRook = this.boardstate[kingRookColumn][startSquare[1]];
-            this.boardstate[endSquare[0]-1][startSquare[1]] = kingRook;
-            this.boardstate[kingRookColumn][startSquare[1]] = Piece.square;
+            this.setSquare(endSquare[0]-1,startSquare[1],kingRook,undo);
+            this.setSquare(kingRookColumn,startSquare[1],Piece.square,undo);
           }
           else {
             //queenside castle
             Piece queenRook = this.boardstate[queenRookColumn][startSquare[1]];
-            this.boardstate[endSquare[0]+1][startSquare[1]] = queenRook;
-            this.boardstate[queenRookColumn][startSquare[1]] = Piece.square;
+            this.setSquare(endSquare[0]+1,startSquare[1],queenRook,undo);
+            this.setSquare(queenRookColumn,startSquare[1],Piece.square,undo);
           }
         }
         break;
@@ -1028,13 +1148,134 @@ public class Board {
       }
     }
     //replace piece in destination with moving piece
-    this.boardstate[endSquare[0]][endSquare[1]] = piece;
+    this.setSquare(endSquare[0],endSquare[1],piece,undo);
     //empty start square
-    this.boardstate[startSquare[0]][startSquare[1]] = Piece.square;
+    this.setSquare(startSquare[0],startSquare[1],Piece.square,undo);
+    
+    this.detectCheck();
+  }
+  
+  void setSquare(int column,int row,Piece piece,UndoRecord undo) {
+    //every change to a square goes through here to keep the material signature right
+    Piece old = this.boardstate[column][row];
+    if (undo != null) {
+      undo.changed(column,row,old);
+    }
+    this.boardstate[column][row] = piece;
+    this.countPiece(old,column,row,-1);
+    this.countPiece(piece,column,row,1);
+  }
+  
+  void countMaterial() {
+    this.material = new int[MATERIAL_SIZE];
+    for (int i=0;i<this.width;i++) {
+      for (int j=0;j<this.height;j++) {
+        this.countPiece(this.boardstate[i][j],i,j,1);
+      }
+    }
+  }
+  
+  void countPiece(Piece piece,int column,int row,int count) {
+    //adds a piece to the material signature, or takes it away when count is -1
+    if (!piece.isPiece) {
+      return;
+    }
+    int[] material = this.material;
+    char letter = piece.letter;
+    int index = letter >= 'a' && letter <= 'z' ? letter-'a' : LETTERS-1;
+    if (piece.side == 1) {
+      material[index] += count;
+      material[WHITE_PIECES] += count;
+      if (index < LETTERS-1) {
+        material[WHITE_LETTERS] = material[index] > 0 ? material[WHITE_LETTERS] | (1 << index) :
+            material[WHITE_LETTERS] & ~(1 << index);
+      }
+    }
+    else {
+      material[LETTERS+index] += count;
+      material[BLACK_PIECES] += count;
+      if (index < LETTERS-1) {
+        material[BLACK_LETTERS] = material[LETTERS+index] > 0 ? material[BLACK_LETTERS] | (1 << index) :
+            material[BLACK_LETTERS] & ~(1 << index);
+      }
+    }
+    switch (PieceType.of(letter).material) {
+      case PieceType.MAJOR_MATERIAL:
+        material[MAJOR] += count;
+        material[MATING] += count;
+        break;
+      case PieceType.MATING_MATERIAL:
+        material[MATING] += count;
+        break;
+      case PieceType.MINOR_MATERIAL:
+        material[MINOR] += count;
+        break;
+      case PieceType.BOUND_MATERIAL:
+        material[(column+row)%2==1 ? LIGHT_BOUND : DARK_BOUND] += count;
+        break;
+      case PieceType.BARRIER_MATERIAL:
+        material[BARRIERS] += count;
+        break;
+    }
+  }
+  
+  int count(char piece) {
+    //how many of a piece there are from its FEN letter
+    int index = Character.toLowerCase(piece)-'a';
+    if (index < 0 || index >= LETTERS-1) {
+      index = LETTERS-1;
+    }
+    return this.material[Character.isUpperCase(piece) ? index : LETTERS+index];
+  }
+  
+  public void promotePiece(char piece) {
+    this.promotePiece(piece,null);
+  }
+  
+  void promotePiece(char piece,UndoRecord undo) {
+    //replaces the pawn waiting for promotion, the piece isn't checked against the options
+    this.legalMoves = null;
+    int[] square = this.promotionSquare;
+    int side = this.boardstate[square[0]][square[1]].side;
+    this.setSquare(square[0],square[1],new Piece((side==1) ? Character.toUpperCase(piece) : piece),undo);
+    this.promotionAvailable = false;
+    this.promotionSquare = new int[] {-1,-1};
     
+    //check the new position for check
     this.detectCheck();
   }
   
+  void undo(UndoRecord undo) {
+    //puts the board back to before a recorded move or promotion
+    this.legalMoves = null;
+    for (int i=undo.changes-1;i>=0;i--) {
+      this.setSquare(undo.columns[i],undo.rows[i],undo.pieces[i],null);
+    }
+    this.toMove = undo.toMove;
+    this.halfmoveClock = undo.halfmoveClock;
+    this.moves = undo.moves;
+    this.inCheck = undo.inCheck;
+    this.gameOver = undo.gameOver;
+    this.promotionAvailable = undo.promotionAvailable;
+    this.promotionSquare = undo.promotionSquare;
+    this.enPassant = undo.enPassant;
+    this.whiteKingLocation = undo.whiteKingLocation;
+    this.blackKingLocation = undo.blackKingLocation;
+    this.startSquare = undo.lastStart;
+    this.endSquare = undo.lastEnd;
+    System.arraycopy(undo.castleRights,0,this.castleRights,0,4);
+  }
+  
+  public boolean isPromotion(int[] startSquare,int[] endSquare) {
+    //whether a legal move would leave a pawn waiting for promotion
+    Piece piece = this.boardstate[startSquare[0]][startSquare[1]];
+    if (piece.letter != 'p') {
+      return false;
+    }
+    int squaresFromBack = piece.side == 1 ? endSquare[1]+1 : this.height-endSquare[1];
+    return squaresFromBack == this.height;
+  }
+  
   public void detectCheck() {
     this.inCheck = this.toMove ? this.isAttacked(whiteKingLocation,!this.toMove) :
         this.isAttacked(blackKingLocation,!this.toMove);
@@ -1046,6 +1287,17 @@ public class Board {
       return true;
     }
     
+    //the moves may already have been found
+    BitSet[] legalMoves = this.legalMoves;
+    if (legalMoves != null && !this.gameOver) {
+      for (BitSet moves : legalMoves) {
+        if (!moves.isEmpty()) {
+          return true;
+        }
+      }
+      return false;
+    }
+    
     //checkmate/stalemate
     for (int i=0;i<this.width;i++) {
       for (int j=0;j<this.height;j++) {
@@ -1066,54 +1318,15 @@ public class Board {
   }
   
   public boolean isSufficientMaterial() {
-    int colourBoundWhite = 0;
-    int colourBoundBlack = 0;
-    int otherPieces = 0;
-    int barriers = 0;
-    for (int i=0;i<this.width;i++) {
-      for (int j=0;j<this.height;j++) {
-        Piece piece = this.boardstate[i][j];
-        if (piece.isPiece) {
-          switch (piece.letter) {
-            case 'm':
-            case 'q':
-            case 'c':
-            case 'a':
-            case 'r':
-            case 'h':
-            case 'x':
-            case 'p':
-              //these pieces can mate alone
-              return true;
-            case 'n':
-            case 'w':
-            case 'z':
-            case 'i':
-              otherPieces++;
-              break;
-            case 'b':
-            case 'l':
-            case 'f':
-              //colour-bound pieces
-              if ((i+j)%2==1) {
-                colourBoundWhite++;
-              }
-              else {
-                colourBoundBlack++;
-              }
-              break;
-            case 'o':
-              barriers++;
-            case 'k':
-              //ignored as irrelevant
-              break;
-            default:
-              //assume any other piece can mate alone
-              return true;
-          }
-        }
-      }
+    int[] material = this.material;
+    if (material[MATING] > 0) {
+      //these pieces can mate alone
+      return true;
     }
+    int otherPieces = material[MINOR];
+    int colourBoundWhite = material[LIGHT_BOUND];
+    int colourBoundBlack = material[DARK_BOUND];
+    int barriers = material[BARRIERS];
     if (otherPieces >= 2) {
       return true;
     }
@@ -1130,4 +1343,227 @@ public class Board {
       return  attacks >= 2;
     }
   }
-}
\ No newline at end of file
+  
+  /*
+  Binary encoding, much smaller and faster to read than FEN and includes the variant rules
+  Numbers are zigzag varints, so small values of either sign take 1 byte
+  Board: width, height, pawnRow, pawnSquares, queenRookColumn, kingRookColumn, friendlyFire (byte), state
+  State: flags, halfmove clock, moves, en passant, promotion and last move squares when present, pieces
+  Pieces go column by column from a1, a byte < 128 is a FEN letter and anything else is
+  a run of up to 128 empty squares
+  */
+  
+  static final int FLAG_WHITE = 1;
+  static final int FLAG_CHECK = 2;
+  static final int FLAG_GAME_OVER = 4;
+  static final int FLAG_PROMOTION = 8;
+  static final int FLAG_EN_PASSANT = 16;
+  static final int FLAG_LAST_MOVE = 32;
+  static final int FLAG_CASTLE = 64; //4 bits, one per castling right
+  
+  public void write(ByteBuffer buffer) {
+    //writes the board, throws BufferOverflowException if there isn't space for encodedSize() bytes
+    //and IllegalArgumentException if a piece letter isn't ASCII, either can leave part of it written
+    Board.writeInt(buffer,this.width);
+    Board.writeInt(buffer,this.height);
+    Board.writeInt(buffer,this.pawnRow);
+    Board.writeInt(buffer,this.pawnSquares);
+    Board.writeInt(buffer,this.queenRookColumn);
+    Board.writeInt(buffer,this.kingRookColumn);
+    buffer.put((byte) (this.friendlyFire ? 1 : 0));
+    this.writeState(buffer);
+  }
+  
+  public int encodedSize() {
+    return Board.intSize(this.width) + Board.intSize(this.height) + Board.intSize(this.pawnRow) +
+        Board.intSize(this.pawnSquares) + Board.intSize(this.queenRookColumn) +
+        Board.intSize(this.kingRookColumn) + 1 + this.stateSize();
+  }
+  
+  int flags() {
+    int flags = (this.toMove ? FLAG_WHITE : 0) | (this.inCheck ? FLAG_CHECK : 0) |
+        (this.gameOver ? FLAG_GAME_OVER : 0) | (this.promotionAvailable ? FLAG_PROMOTION : 0) |
+        (this.enPassant[0] != -1 ? FLAG_EN_PASSANT : 0) | (this.startSquare != null ? FLAG_LAST_MOVE : 0);
+    for (int i=0;i<4;i++) {
+      if (this.castleRights[i]) {
+        flags |= FLAG_CASTLE << i;
+      }
+    }
+    return flags;
+  }
+  
+  void writeState(ByteBuffer buffer) {
+    int flags = this.flags();
+    Board.writeInt(buffer,flags);
+    Board.writeInt(buffer,this.halfmoveClock);
+    Board.writeInt(buffer,this.moves);
+    if ((flags & FLAG_EN_PASSANT) != 0) {
+      Board.writeInt(buffer,this.enPassant[0]);
+      Board.writeInt(buffer,this.enPassant[1]);
+      Board.writeInt(buffer,this.enPassant[2]);
+    }
+    if ((flags & FLAG_PROMOTION) != 0) {
+      Board.writeInt(buffer,this.promotionSquare[0]);
+      Board.writeInt(buffer,this.promotionSquare[1]);
+    }
+    if ((flags & FLAG_LAST_MOVE) != 0) {
+      Board.writeInt(buffer,this.startSquare[0]);
+      Board.writeInt(buffer,this.startSquare[1]);
+      Board.writeInt(buffer,this.endSquare[0]);
+      Board.writeInt(buffer,this.endSquare[1]);
+    }
+    int emptySquares = 0;
+    for (int i=0;i<this.width;i++) {
+      for (int j=0;j<this.height;j++) {
+        Piece piece = this.boardstate[i][j];
+        if (piece.isPiece) {
+          if (emptySquares > 0) {
+            buffer.put((byte) (0x80 | (emptySquares-1)));
+            emptySquares = 0;
+          }
+          char letter = piece.side == 1 ? Character.toUpperCase(piece.letter) : piece.letter;
+          if (letter >= 0x80) {
+            //would read back as a run of empty squares
+            throw new IllegalArgumentException("can't encode piece " + letter + ", letters must be ASCII");
+          }
+          buffer.put((byte) letter);
+        }
+        else {
+          emptySquares++;
+          if (emptySquares == 128) {
+            buffer.put((byte) 0xff);
+            emptySquares = 0;
+          }
+        }
+      }
+    }
+    if (emptySquares > 0) {
+      buffer.put((byte) (0x80 | (emptySquares-1)));
+    }
+  }
+  
+  int stateSize() {
+    int flags = this.flags();
+    int size = Board.intSize(flags) + Board.intSize(this.halfmoveClock) + Board.intSize(this.moves);
+    if ((flags & FLAG_EN_PASSANT) != 0) {
+      size += Board.intSize(this.enPassant[0]) + Board.intSize(this.enPassant[1]) +
+          Board.intSize(this.enPassant[2]);
+    }
+    if ((flags & FLAG_PROMOTION) != 0) {
+      size += Board.intSize(this.promotionSquare[0]) + Board.intSize(this.promotionSquare[1]);
+    }
+    if ((flags & FLAG_LAST_MOVE) != 0) {
+      size += Board.intSize(this.startSquare[0]) + Board.intSize(this.startSquare[1]) +
+          Board.intSize(this.endSquare[0]) + Board.intSize(this.endSquare[1]);
+    }
+    int emptySquares = 0;
+    for (int i=0;i<this.width;i++) {
+      for (int j=0;j<this.height;j++) {
+        if (this.boardstate[i][j].isPiece) {
+          size += emptySquares > 0 ? 2 : 1;
+          emptySquares = 0;
+        }
+        else {
+          emptySquares++;
+          if (emptySquares == 128) {
+            size++;
+            emptySquares = 0;
+          }
+        }
+      }
+    }
+    return size + (emptySquares > 0 ? 1 : 0);
+  }
+  
+  void readState(ByteBuffer buffer) {
+    int flags = Board.readInt(buffer);
+    this.toMove = (flags & FLAG_WHITE) != 0;
+    this.inCheck = (flags & FLAG_CHECK) != 0;
+    this.gameOver = (flags & FLAG_GAME_OVER) != 0;
+    this.promotionAvailable = (flags & FLAG_PROMOTION) != 0;
+    this.castleRights = new boolean[4];
+    for (int i=0;i<4;i++) {
+      this.castleRights[i] = (flags & (FLAG_CASTLE << i)) != 0;
+    }
+    this.halfmoveClock = Board.readInt(buffer);
+    this.moves = Board.readInt(buffer);
+    this.enPassant = new int[] {-1,-1,-1};
+    if ((flags & FLAG_EN_PASSANT) != 0) {
+      this.enPassant[0] = Board.readInt(buffer);
+      this.enPassant[1] = Board.readInt(buffer);
+      this.enPassant[2] = Board.readInt(buffer);
+    }
+    this.promotionSquare = new int[] {-1,-1};
+    if ((flags & FLAG_PROMOTION) != 0) {
+      this.promotionSquare[0] = Board.readInt(buffer);
+      this.promotionSquare[1] = Board.readInt(buffer);
+    }
+    if ((flags & FLAG_LAST_MOVE) != 0) {
+      this.startSquare = new int[] {Board.readInt(buffer),Board.readInt(buffer)};
+      this.endSquare = new int[] {Board.readInt(buffer),Board.readInt(buffer)};
+    }
+    
+    this.boardstate = new Piece[this.width][this.height];
+    int square = 0;
+    int squares = this.width*this.height;
+    while (square < squares) {
+      int value = buffer.get() & 0xff;
+      if (value >= 0x80) {
+        int end = square + (value & 0x7f) + 1;
+        if (end > squares) {
+          throw new IllegalArgumentException("too many squares in encoded board");
+        }
+        while (square < end) {
+          this.boardstate[square/this.height][square%this.height] = Piece.square;
+          square++;
+        }
+      }
+      else {
+        char letter = (char) value;
+        int column = square/this.height;
+        int row = square%this.height;
+        if (letter == 'K') {
+          this.whiteKingLocation = new int[] {column,row};
+        }
+        else if (letter == 'k') {
+          this.blackKingLocation = new int[] {column,row};
+        }
+        this.boardstate[column][row] = Piece.of(letter);
+        square++;
+      }
+    }
+    this.countMaterial();
+  }
+  
+  static void writeInt(ByteBuffer buffer,int value) {
+    //zigzag varint
+    int bits = (value << 1) ^ (value >> 31);
+    while ((bits & ~0x7f) != 0) {
+      buffer.put((byte) ((bits & 0x7f) | 0x80));
+      bits >>>= 7;
+    }
+    buffer.put((byte) bits);
+  }
+  
+  static int readInt(ByteBuffer buffer) {
+    int bits = 0;
+    for (int shift=0;shift<35;shift+=7) {
+      int value = buffer.get();
+      bits |= (value & 0x7f) << shift;
+      if (value >= 0) {
+        return (bits >>> 1) ^ -(bits & 1);
+      }
+    }
+    throw new IllegalArgumentException("bad number in encoded board");
+  }
+  
+  static int intSize(int value) {
+    int bits = (value << 1) ^ (value >> 31);
+    int size = 1;
+    while ((bits & ~0x7f) != 0) {
+      size++;
+      bits >>>= 7;
+    }
+    return size;
+  }
+}
@@ -2,6 +2,7 @@ package io.github.mathmagician8191.chessgame;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Engine extends Game {
   /*
@@ -12,12 +13,35 @@ public class Engine extends Game {
   public int depth;
   public int quiescenceDepth;
   
+  //weights for evaluate, the bonuses are the part of the value rooks and bishops get from the board size
+  EvaluationWeights weights;
   public int rookBonus;
   public int bishopBonus;
   
   //which side the engine plays
   public boolean side;
   
+  //how far from a king obstacles are moved to below the root, 0 to try every empty square
+  public int obstacleRange;
+  
+  //search this position is part of, null when searching without a handle
+  Search search;
+  
+  //counters for the search, null when not collecting statistics
+  SearchStatistics statistics;
+  
+  //transposition table shared by the search, null to search without one
+  TranspositionTable table;
+  
+  //best reply found the last time this position was searched, used for the principal variation
+  Engine bestChild;
+  
+  //book moves are played instead of searching when there are any, null to always search
+  OpeningBook book;
+  
+  //endings looked up instead of searched, null to always search
+  Tablebases tablebases;
+  
   public Engine(String fen,int pawnRow,int pawnSquares,int queenRookColumn,int kingRookColumn,
       String promotionOptions,boolean friendlyFire,int depth,int quiescenceDepth,boolean side) {
     super(fen,pawnRow,pawnSquares,queenRookColumn,kingRookColumn,promotionOptions,friendlyFire);
@@ -25,12 +49,7 @@ public class Engine extends Game {
     this.quiescenceDepth = quiescenceDepth;
     this.side = side;
     
-    Board board = this.position;
-    
-    //rook move bonus based on board size
-    this.rookBonus = 2 * board.height + board.width;
-    //bishop move bonus based on board size
-    this.bishopBonus = 4 * Math.min(board.height,board.width);
+    this.setWeights(EvaluationWeights.defaults());
   }
   
   public Engine(Engine original) {
@@ -39,10 +58,18 @@ public class Engine extends Game {
     this.depth = original.depth;
     this.quiescenceDepth = original.quiescenceDepth;
     
+    this.weights = original.weights;
     this.rookBonus = original.rookBonus;
     this.bishopBonus = original.bishopBonus;
     
     this.side = original.side;
+    this.obstacleRange = original.obstacleRange;
+    
+    this.search = original.search;
+    this.statistics = original.statistics;
+    this.table = original.table;
+    this.book = original.book;
+    this.tablebases = original.tablebases;
   }
   
   public Engine(Game game,int depth,int quiescenceDepth) {
@@ -50,17 +77,65 @@ public class Engine extends Game {
     this.depth = depth;
     this.quiescenceDepth = quiescenceDepth;
     
+    this.setWeights(EvaluationWeights.defaults());
+  }
+  
+  public void setWeights(EvaluationWeights weights) {
+    //the weights are only read, so they can be shared between threads
+    this.weights = weights;
     Board board = this.position;
-    
+    int[] vector = weights.weights;
     //rook move bonus based on board size
-    this.rookBonus = 2 * board.height + board.width;
+    this.rookBonus = EvaluationWeights.sizeBonus(vector,PieceType.ROOK_BONUS,board.width,board.height);
     //bishop move bonus based on board size
-    this.bishopBonus = 4 * Math.min(board.height,board.width);
+    this.bishopBonus = EvaluationWeights.sizeBonus(vector,PieceType.BISHOP_BONUS,board.width,board.height);
+  }
+  
+  public void setStatistics(SearchStatistics statistics) {
+    //statistics aren't thread-safe, each thread searching should have its own
+    this.statistics = statistics;
+  }
+  
+  public void setTable(TranspositionTable table) {
+    //the table can be shared between threads
+    this.table = table;
+  }
+  
+  public void setBook(OpeningBook book) {
+    //the book is only read, so it can be shared between threads
+    this.book = book;
+  }
+  
+  public void setTablebases(Tablebases tablebases) {
+    //the tables are only read, so they can be shared between threads
+    this.tablebases = tablebases;
+  }
+  
+  public Search search(SearchListener listener) {
+    //searches on another thread, the search can be stopped through the returned handle
+    Search search = new Search(new Engine(this),this.depth,listener);
+    search.start();
+    return search;
+  }
+  
+  public Search ponder(SearchListener listener) {
+    //searches this position until the search is stopped or told the opponent has moved
+    Search search = new Search(new Engine(this),this.depth,listener);
+    search.setPondering(true);
+    search.start();
+    return search;
   }
   
   public Game makeMove(Game game) {
-    //operates on a game
-    return Engine.makeMove(new Engine(game,this.depth,this.quiescenceDepth),this.depth);
+    //operates on a game, searched with this engine's settings
+    Engine engine = new Engine(game,this.depth,this.quiescenceDepth);
+    engine.setWeights(this.weights);
+    engine.obstacleRange = this.obstacleRange;
+    engine.statistics = this.statistics;
+    engine.table = this.table;
+    engine.book = this.book;
+    engine.tablebases = this.tablebases;
+    return Engine.makeMove(engine,this.depth);
   }
   
   public static Engine makeMove(Engine game) {
@@ -68,6 +143,47 @@ public class Engine extends Game {
   }
   
   public static Engine makeMove(Engine game, int depth) {
+    if (game.book != null) {
+      Engine bookMove = game.bookMove();
+      if (bookMove != null) {
+        return bookMove;
+      }
+    }
+    
+    Profiling.Listener listener = Profiling.listener;
+    if (listener == null) {
+      return Engine.findMove(game,depth);
+    }
+    
+    //count nodes for the profiler, without keeping the counters if the caller didn't ask for them
+    SearchStatistics statistics = game.statistics;
+    if (statistics == null) {
+      game.statistics = new SearchStatistics(false);
+    }
+    long nodes = game.statistics.totalNodes();
+    long startTime = System.nanoTime();
+    
+    Engine result = Engine.findMove(game,depth);
+    
+    long time = System.nanoTime() - startTime;
+    listener.moveSearched(game.position,depth,game.statistics.totalNodes()-nodes,time);
+    if (statistics == null) {
+      game.statistics = null;
+      result.statistics = null;
+    }
+    return result;
+  }
+  
+  Engine bookMove() {
+    //plays a weighted random move from the book, null if the position isn't in it
+    if (this.position.gameOver) {
+      return null;
+    }
+    OpeningBook.Move move = this.book.pickMove(this.position,ThreadLocalRandom.current());
+    return move == null ? null : move.play(this);
+  }
+  
+  static Engine findMove(Engine game, int depth) {
     //gets the right move for the position
     
     //starting best-case
@@ -103,6 +219,11 @@ public class Engine extends Game {
     return newPosition;
   }
   
+  public long perft(int depth) {
+    //counts the positions reachable to test move generation
+    return new Perft(this.promotionOptions,null).perft(this.position,depth);
+  }
+  
   public int getScore(int depth) {
     //initialises alpha-beta
     //we add 1 to Integer.MIN_VALUE so we can multiply it by -1 and not overflow
@@ -111,320 +232,88 @@ public class Engine extends Game {
   
   public int evaluate(int depth,int alpha,int beta) {
     //searches and evaluates positions, gives value in centipawns
-    
-    //save board for further reference
-    Board board = this.position;
-    
-    if (depth == 0) {
-      //search has ended
-      return this.quiescence(alpha,beta,this.quiescenceDepth);
-    }
-    //keep searching
-    if (board.gameOver) {
-      int gameScore = this.gameResult * (board.toMove ? 1 : -1);
-      switch (gameScore) {
-        case -1:
-          return Integer.MIN_VALUE+1+board.moves;
-        case 0:
-          return 0;
-        case 1:
-          return Integer.MAX_VALUE-board.moves;
-      }
-    }
-    //iterate over all possible moves
-    ArrayList<Engine> games = this.getMoves();
-    for (Engine newGame : games) {
-      int score = -newGame.evaluate(depth-1,-beta,-alpha);
-      if (score >= beta) {
-        return beta;
-      }
-      if (score > alpha) {
-        alpha = score;
+    //the tree below this game is searched on a context, only the best line is made into games
+    SearchContext context = new SearchContext(this,depth+this.quiescenceDepth);
+    int score = context.search(0,depth,alpha,beta);
+    this.playLine(context.pv[0],context.pvLength[0]);
+    return score;
+  }
+  
+  void playLine(long[] moves,int length) {
+    //links the games after a line of moves as each other's best child
+    this.bestChild = null;
+    Engine game = this;
+    int height = this.position.height;
+    for (int i=0;i<length;i++) {
+      int startSquare = (int) (moves[i] >>> 40);
+      int endSquare = (int) (moves[i] >>> 16) & 0xffffff;
+      char promotion = (char) moves[i];
+      Engine child = new Engine(game);
+      child.makeMove(new int[] {startSquare/height,startSquare%height},
+          new int[] {endSquare/height,endSquare%height});
+      if (promotion != 0) {
+        child.promotePiece(promotion);
       }
+      game.bestChild = child;
+      game = child;
     }
-    
-    return alpha;
   }
   
   public int quiescence(int alpha,int beta,int depth) {
     //tests captures from a position so that the program misses less tactical combinations
     //could lead to a search explosion - should limit depth for robustness
-    
-    //get the idea of what the position is
-    int result = this.evaluate();
-    
-    //if too good, other player won't let it happen
-    if (result >= beta) {
-      return beta;
-    }
-    
-    //if not too bad, remember this as best achievable
-    if (alpha < result) {
-      alpha = result;
-    }
-    
-    //if search over, stop
-    if (depth==0) {
-      return alpha;
-    }
-    
-    //store board state for future reference
-    Board board = this.position;
-    
-    //consider captures only as others are assumed tactically insignificant
-    for (int i=0;i<board.width;i++) {
-        for (int j=0;j<board.height;j++) {
-          Piece piece = board.boardstate[i][j];
-          if (piece.isPiece && piece.side == (board.toMove ? 1 : -1)) {
-            for (int k=0;k<board.width;k++) {
-              for (int l=0;l<board.height;l++) {
-                Piece capture = board.boardstate[k][l];
-                if (capture.isPiece) {
-                  Board newBoard = this.position.getMove(new int[]{i,j},new int[]{k,l});
-                  if (newBoard != null) {
-                    Engine newGame = new Engine(this);
-                    newGame.position = newBoard;
-                    if (board.halfmoveClock==0) {
-                      newGame.pastPositions = new ArrayList<>();
-                      newGame.duplicatedPositions = new ArrayList<>();
-                    }
-
-                    newGame.checkResult();
-
-                    newGame.pastPositions.add(new Board(board));
-                    
-                    if (newGame.position.promotionAvailable) {
-                      //check all promotion options
-                      String options = newGame.promotionOptions;
-                      for (int m=0, length=options.length();m<length;m++) {
-                        char letter = options.charAt(m);
-                        Engine newerGame = new Engine(newGame);
-                        newerGame.promotePiece(letter);
-                        int evaluation = -newerGame.quiescence(-beta,-alpha,depth-1);
-                        if (evaluation >= beta) {
-                          return beta;
-                        }
-                        if (evaluation > alpha) {
-                          alpha = evaluation;
-                        }
-                      }
-                    }
-                    else {
-                      int evaluation = -newGame.quiescence(-beta,-alpha,depth-1);
-                      if (evaluation >= beta) {
-                        return beta;
-                      }
-                      if (evaluation > alpha) {
-                        alpha = evaluation;
-                      }
-                    }
-                  }
-                }
-              }
-            }
-          }
-        }
+    return new SearchContext(this,depth).quiescence(0,alpha,beta,depth);
+  }
+  
+  static int gameScore(Board board,int gameResult) {
+    //score of a finished game for the side to move, mates are scored by the move they happen on
+    int gameScore = gameResult * (board.toMove ? 1 : -1);
+    switch (gameScore) {
+      case -1:
+        return Integer.MIN_VALUE+1+board.moves;
+      case 1:
+        return Integer.MAX_VALUE-board.moves;
+      default:
+        return 0;
     }
-    
-    return alpha;
   }
   
   public int evaluate() {
     //tries to figure out how good a position is for the side to move
-    
-    //save board for future reference
-    Board board = this.position;
+    return this.evaluate(this.position,this.position.gameOver ? this.gameResult : SearchContext.NO_RESULT);
+  }
+  
+  int evaluate(Board board,int gameResult) {
+    //static evaluation of a board from a search, gameResult is NO_RESULT if the game isn't over
     
     //test for an existing game result
-    if (board.gameOver) {
-      //score for side to move
-      int gameScore = this.gameResult * (board.toMove ? 1 : -1);
-      switch (gameScore) {
-        case -1:
-          return Integer.MIN_VALUE+1+board.moves;
-        case 0:
-          return 0;
-        case 1:
-          return Integer.MAX_VALUE-board.moves;
-      }
+    if (gameResult != SearchContext.NO_RESULT) {
+      return Engine.gameScore(board,gameResult);
     }
     
-    //sees how good a position is in centipawns
-    int result = 0;
-    
-    //penalty for being in check
-    if (board.inCheck) {
-      result += board.toMove ? -75 : 75;
-    }
-    
-    //to see if any side has no pieces left
-    int whitePieces = 0;
-    int blackPieces = 0;
-    
-    //see if mating material is guaranteed (i.e. major piece)
-    //KPvK could be a draw and stuff like KNNvK is drawn
-    boolean majorPiece = false;
+    //sees how good a position is in centipawns, from white's side
+    int result = Engine.kingScore(board);
     
     //iterate over squares
+    int[] weights = this.weights.weights;
     for (int i=0;i<board.width;i++) {
       for (int j=0;j<board.height;j++) {
         Piece piece = board.boardstate[i][j];
         if (piece.isPiece) {
-          if (piece.side==1) {
-            whitePieces++;
+          //weights dependent on the piece, from its definition unless they have been changed
+          PieceType type = PieceType.of(piece.letter);
+          int letter = EvaluationWeights.index(type);
+          int sizeBonus = 0;
+          if (type.bonus == PieceType.ROOK_BONUS) {
+            sizeBonus = this.rookBonus;
           }
-          else {
-            blackPieces++;
+          else if (type.bonus == PieceType.BISHOP_BONUS) {
+            sizeBonus = this.bishopBonus;
           }
-          //values dependent on the piece
-          int pieceValue;
-          int kingThreat = 0;
-          int threatRange = 3;
-          int roomNeeded;
-          int roomValue;
-          int advanceBonus;
           
           //value that can be used by other pieces
           int advancement = (piece.side==1) ? j : board.height-1-j;
           
-          switch (piece.letter) {
-            case 'm':
-              pieceValue = 1200 + this.rookBonus;
-              kingThreat = 40;
-              roomNeeded = 2;
-              roomValue = 25;
-              advanceBonus = 0;
-              majorPiece = true;
-              break;
-            case 'q':
-              pieceValue = 870 + this.rookBonus;
-              kingThreat = 10;
-              threatRange = 5;
-              roomNeeded = 1;
-              roomValue = 20;
-              advanceBonus = 0;
-              majorPiece = true;
-              break;
-            case 'c':
-              pieceValue = 870 + this.rookBonus;
-              kingThreat = 20;
-              roomNeeded = 2;
-              roomValue = 20;
-              advanceBonus = 0;
-              majorPiece = true;
-              break;
-            case 'a':
-              pieceValue = 800 + this.bishopBonus;
-              kingThreat = 20;
-              roomNeeded = 2;
-              roomValue = 20;
-              advanceBonus = 0;
-              majorPiece = true;
-              break;
-            case 'h':
-              pieceValue = 600;
-              kingThreat = 30;
-              roomNeeded = 2;
-              roomValue = 20;
-              advanceBonus = 0;
-              majorPiece = true;
-              break;
-            case 'r':
-              pieceValue = 470 + this.rookBonus;
-              kingThreat = 10;
-              threatRange = 2;
-              roomNeeded = 1;
-              roomValue = 5;
-              advanceBonus = 0;
-              majorPiece = true;
-              
-              //bonus for rook on the 2nd last rank
-//              if (advancement==board.height-2) {
-//                pieceValue += 10;
-//              }
-              break;
-            case 'i':
-              //use the bishop bonus becuase it moves diagonally-ish
-              pieceValue = 470 + this.bishopBonus;
-              roomNeeded = 2;
-              roomValue = 9;
-              advanceBonus = 0;
-              break;
-            case 'b':
-              pieceValue = 300 + this.bishopBonus;
-              roomNeeded = 1;
-              roomValue = 10;
-              advanceBonus = 0;
-              break;
-            case 'z':
-              pieceValue = 320;
-              roomNeeded = 3;
-              roomValue = 13;
-              advanceBonus = 0;
-              break;
-            case 'n':
-              pieceValue = 320;
-              roomNeeded = 2;
-              roomValue = 18;
-              advanceBonus = 2;
-              break;
-            case 'x':
-              pieceValue = 320;
-              kingThreat = 10;
-              roomNeeded = 1;
-              roomValue = 25;
-              advanceBonus = 0;
-              majorPiece = true;
-              break;
-            case 'w':
-              pieceValue = 200;
-              roomNeeded = 1;
-              roomValue = 25;
-              advanceBonus = 0;
-              break;
-            case 'l':
-              pieceValue = 200;
-              roomNeeded = 3;
-              roomValue = 12;
-              advanceBonus = 0;
-              break;
-            case 'f':
-              pieceValue = 150;
-              roomNeeded = 1;
-              roomValue = 25;
-              advanceBonus = 0;
-              break;
-            case 'o':
-              pieceValue = 150;
-              roomNeeded = 0;
-              roomValue = 0;
-              advanceBonus = 0;
-              break;
-            case 'p':
-              pieceValue = 80;
-              kingThreat = -5;
-              roomNeeded = 1;
-              roomValue = 15;
-              advanceBonus = 12;
-              break;
-            case 'k':
-              pieceValue = 0;
-              roomNeeded = 1;
-              roomValue = 5;
-              advanceBonus = 0;
-              break;
-            default:
-              //assume some other piece is more valuable than a pawn so its not thrown away
-              pieceValue = 110;
-              //assume some other piece can attack the king so it moves it there
-              kingThreat = 10;
-              //keep it away from the edge
-              roomNeeded = 2;
-              roomValue = 10;
-              //advance it
-              advanceBonus = 1;
-          }
-          
           //distance from enemy king
           int kingX;
           int kingY;
@@ -437,26 +326,64 @@ public class Engine extends Game {
             kingY = Math.abs(j-board.whiteKingLocation[1]);
           }
           int kingDistance = kingX + kingY;
-          //being close to the enemy king threatens it
-          int kingDanger = kingDistance < threatRange ? threatRange - kingDistance : 0;
           
           //distance to nearest edge
           int distanceX = Math.min(i,board.width-1-i);
           int distanceY = Math.min(j,board.height-1-j);
           
-          int crampX = distanceX < roomNeeded ? roomNeeded - distanceX : 0;
-          int crampY = distanceY < roomNeeded ? roomNeeded - distanceY : 0;
-          int cramp = crampX + crampY;
-          
           //reduce the board height into graduations, at most 20 total
           //this means that there are no huge advancement bonuses on larger boards
           int advancementCapped = (advancement * 10)/board.height;
           
-          result += (pieceValue + (kingDanger*kingThreat) - (cramp*roomValue) + (advancementCapped*advanceBonus)) * piece.side;
+          result += Engine.pieceScore(weights,letter,sizeBonus,kingDistance,distanceX,distanceY,
+              advancementCapped) * piece.side;
         }
       }
     }
     
+//    if (this.duplicatedPositions.size() > 0) {
+//      result /= (this.duplicatedPositions.size()+1);
+//    }
+    
+    return result * (board.toMove ? 1 : -1);
+  }
+  
+  static int pieceScore(int[] weights,int letter,int sizeBonus,int kingDistance,int distanceX,
+      int distanceY,int advancement) {
+    //what a piece adds to its side's score, also used by Tuner on stored positions
+    //being close to the enemy king threatens it
+    int threatRange = weights[EvaluationWeights.THREAT_RANGE+letter];
+    int kingDanger = kingDistance < threatRange ? threatRange - kingDistance : 0;
+    
+    //being close to the edge cramps it
+    int roomNeeded = weights[EvaluationWeights.ROOM_NEEDED+letter];
+    int crampX = distanceX < roomNeeded ? roomNeeded - distanceX : 0;
+    int crampY = distanceY < roomNeeded ? roomNeeded - distanceY : 0;
+    int cramp = crampX + crampY;
+    
+    return weights[EvaluationWeights.VALUE+letter] + sizeBonus +
+        kingDanger*weights[EvaluationWeights.KING_THREAT+letter] -
+        cramp*weights[EvaluationWeights.ROOM_VALUE+letter] +
+        advancement*weights[EvaluationWeights.ADVANCE_BONUS+letter];
+  }
+  
+  static int kingScore(Board board) {
+    //the part of the score from white's side that doesn't depend on the weights
+    int result = 0;
+    
+    //penalty for being in check
+    if (board.inCheck) {
+      result += board.toMove ? -75 : 75;
+    }
+    
+    //to see if any side has no pieces left
+    int whitePieces = board.material[Board.WHITE_PIECES];
+    int blackPieces = board.material[Board.BLACK_PIECES];
+    
+    //see if mating material is guaranteed (i.e. major piece)
+    //KPvK could be a draw and stuff like KNNvK is drawn
+    boolean majorPiece = board.material[Board.MAJOR] > 0;
+    
     if (whitePieces==1) {
       //bonus for black driving the king to the corner
       int kingEdgeness = Math.abs(2*board.whiteKingLocation[0]-board.width+1)
@@ -504,11 +431,7 @@ public class Engine extends Game {
       }
     }
     
-//    if (this.duplicatedPositions.size() > 0) {
-//      result /= (this.duplicatedPositions.size()+1);
-//    }
-    
-    return result * (board.toMove ? 1 : -1);
+    return result;
   }
   
   public ArrayList<Engine> getMoves() {
@@ -521,28 +444,35 @@ public class Engine extends Game {
       return games;
     }
     
+    //time this call if it is being sampled
+    boolean timed = this.statistics != null && this.statistics.sampleMoves();
+    long startTime = timed ? System.nanoTime() : 0;
+    long legalityTime = 0;
+    
     for (int i=0;i<board.width;i++) {
       for (int j=0;j<board.height;j++) {
         Piece piece = board.boardstate[i][j];
         if (piece.isPiece && (piece.side == (board.toMove ? 1 : -1))) {
           for (int k=0;k<board.width;k++) {
             for (int l=0;l<board.height;l++) {
-              Board newBoard = this.position.getMove(new int[]{i,j},new int[]{k,l});
-              if (newBoard != null) {
-                Engine newGame = new Engine(this);
-                newGame.position = newBoard;
-                if (board.halfmoveClock==0) {
-                  newGame.pastPositions = new ArrayList<>();
-                  newGame.duplicatedPositions = new ArrayList<>();
-                }
-
-                newGame.checkResult();
-
-                newGame.pastPositions.add(new Board(board));
-                
-                if (board.promotionAvailable && (newGame.promotionOptions.length() == 1)) {
-                  newGame.promotePiece(newGame.promotionOptions.charAt(0));
+              int[] startSquare = new int[] {i,j};
+              int[] endSquare = new int[] {k,l};
+              long legalityStart = timed ? System.nanoTime() : 0;
+              Engine newGame = null;
+              UndoRecord undo = null;
+              if (board.isPseudoLegal(startSquare,endSquare)) {
+                newGame = new Engine(this);
+                undo = new UndoRecord(newGame,startSquare,endSquare,(char) 0);
+                newGame.position.movePiece(startSquare,endSquare,undo);
+                if (!board.keepsKingSafe(startSquare,endSquare) && newGame.position.leftInCheck()) {
+                  newGame = null;
                 }
+              }
+              if (timed) {
+                legalityTime += System.nanoTime() - legalityStart;
+              }
+              if (newGame != null) {
+                newGame.moveMade(undo);
                 
                 if (newGame.position.promotionAvailable) {
                   //check all promotion options
@@ -564,6 +494,11 @@ public class Engine extends Game {
       }
     }
     
+    if (timed) {
+      this.statistics.legalityTime += legalityTime;
+      this.statistics.moveGenerationTime += System.nanoTime() - startTime - legalityTime;
+    }
+    
     return games;
   }
 }
\ No newline at end of file
@@ -0,0 +1,178 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+public class EvaluationWeights {
+  /*
+  The weights Engine.evaluate uses, kept in one vector so they can be tuned, see Tuner
+  Each piece has a value, a bonus of kingThreat for each square it is closer than threatRange
+  to the enemy king, a penalty of roomValue for each square it is closer than roomNeeded to an edge
+  and a bonus of advanceBonus for each tenth of the board it has advanced
+  Pieces with a rook or bishop bonus are also worth more on larger boards:
+  rookHeight*height + rookWidth*width or bishopSize*min(width,height)
+  Letters without a definition share the weights of unknown pieces
+  Weights are stored as text, one name=value per line such as n.value=320, unknown.roomValue=10
+  or rookHeight=2. Blank lines and lines starting with # are ignored
+  */
+
+  static final String[] PIECE_WEIGHTS = {
+    "value","kingThreat","threatRange","roomNeeded","roomValue","advanceBonus"
+  };
+  static final String[] SIZE_WEIGHTS = {"rookHeight","rookWidth","bishopSize"};
+
+  //where each piece weight starts in the vector, the letter index is added to it
+  static final int VALUE = 0;
+  static final int KING_THREAT = 128;
+  static final int THREAT_RANGE = 256;
+  static final int ROOM_NEEDED = 384;
+  static final int ROOM_VALUE = 512;
+  static final int ADVANCE_BONUS = 640;
+  //size weights
+  static final int ROOK_HEIGHT = 768;
+  static final int ROOK_WIDTH = 769;
+  static final int BISHOP_SIZE = 770;
+  public static final int SIZE = 771;
+
+  //letter index of pieces without a definition
+  static final int UNKNOWN = 0;
+
+  //the weights in the piece definitions, made again after a piece is defined
+  static volatile EvaluationWeights defaults;
+
+  final int[] weights;
+
+  public EvaluationWeights(int[] weights) {
+    if (weights.length != SIZE) {
+      throw new IllegalArgumentException("expected " + SIZE + " weights");
+    }
+    this.weights = weights.clone();
+  }
+
+  public static EvaluationWeights defaults() {
+    EvaluationWeights weights = EvaluationWeights.defaults;
+    if (weights == null) {
+      int[] vector = new int[SIZE];
+      for (int letter=0;letter<128;letter++) {
+        PieceType type = PieceType.of((char) letter);
+        vector[VALUE+letter] = type.value;
+        vector[KING_THREAT+letter] = type.kingThreat;
+        vector[THREAT_RANGE+letter] = type.threatRange;
+        vector[ROOM_NEEDED+letter] = type.roomNeeded;
+        vector[ROOM_VALUE+letter] = type.roomValue;
+        vector[ADVANCE_BONUS+letter] = type.advanceBonus;
+      }
+      vector[ROOK_HEIGHT] = 2;
+      vector[ROOK_WIDTH] = 1;
+      vector[BISHOP_SIZE] = 4;
+      weights = new EvaluationWeights(vector);
+      EvaluationWeights.defaults = weights;
+    }
+    return weights;
+  }
+
+  public int[] toVector() {
+    return this.weights.clone();
+  }
+
+  public int get(String name) {
+    return this.weights[EvaluationWeights.index(name)];
+  }
+
+  static int index(PieceType type) {
+    //the letter index of a piece's weights
+    return type == PieceType.UNKNOWN ? UNKNOWN : type.letter;
+  }
+
+  static int index(String name) {
+    //where a named weight is in the vector
+    for (int i=0;i<SIZE_WEIGHTS.length;i++) {
+      if (SIZE_WEIGHTS[i].equals(name)) {
+        return ROOK_HEIGHT+i;
+      }
+    }
+    int dot = name.indexOf('.');
+    if (dot > 0) {
+      String piece = name.substring(0,dot);
+      int letter;
+      if (piece.equals("unknown")) {
+        letter = UNKNOWN;
+      }
+      else if (piece.length() == 1 && PieceType.of(piece.charAt(0)) != PieceType.UNKNOWN) {
+        letter = piece.charAt(0);
+      }
+      else {
+        throw new IllegalArgumentException("no piece " + piece + " in " + name);
+      }
+      for (int i=0;i<PIECE_WEIGHTS.length;i++) {
+        if (PIECE_WEIGHTS[i].equals(name.substring(dot+1))) {
+          return i*128+letter;
+        }
+      }
+    }
+    throw new IllegalArgumentException("unknown weight " + name);
+  }
+
+  static String name(int index) {
+    if (index >= ROOK_HEIGHT) {
+      return SIZE_WEIGHTS[index-ROOK_HEIGHT];
+    }
+    int letter = index%128;
+    return (letter == UNKNOWN ? "unknown" : String.valueOf((char) letter)) + "." + PIECE_WEIGHTS[index/128];
+  }
+
+  static int sizeBonus(int[] weights,int bonus,int width,int height) {
+    //what a piece with a rook or bishop bonus gains from the board size
+    switch (bonus) {
+      case PieceType.ROOK_BONUS:
+        return weights[ROOK_HEIGHT]*height + weights[ROOK_WIDTH]*width;
+      case PieceType.BISHOP_BONUS:
+        return weights[BISHOP_SIZE]*Math.min(width,height);
+      default:
+        return 0;
+    }
+  }
+
+  public static EvaluationWeights read(String path) throws IOException {
+    //weights that aren't in the file keep their default
+    int[] weights = EvaluationWeights.defaults().toVector();
+    try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        int equals = line.indexOf('=');
+        if (equals < 0) {
+          throw new IllegalArgumentException("expected name=value, got " + line);
+        }
+        weights[EvaluationWeights.index(line.substring(0,equals).trim())] =
+            Integer.parseInt(line.substring(equals+1).trim());
+      }
+    }
+    return new EvaluationWeights(weights);
+  }
+
+  public void write(String path) throws IOException {
+    //the weights of every defined piece and of unknown pieces
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(path))) {
+      for (int letter=0;letter<128;letter++) {
+        if (letter != UNKNOWN && PieceType.of((char) letter) == PieceType.UNKNOWN) {
+          continue;
+        }
+        for (int i=0;i<PIECE_WEIGHTS.length;i++) {
+          writer.write(EvaluationWeights.name(i*128+letter) + "=" + this.weights[i*128+letter]);
+          writer.newLine();
+        }
+      }
+      for (int i=ROOK_HEIGHT;i<SIZE;i++) {
+        writer.write(EvaluationWeights.name(i) + "=" + this.weights[i]);
+        writer.newLine();
+      }
+    }
+  }
+}
@@ -1,7 +1,12 @@
 package io.github.mathmagician8191.chessgame;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 
 public class Game {
   /*
@@ -11,9 +16,14 @@ public class Game {
   //position
   public Board position;
   
-  //for three-fold repitition, these variables are assumed immutable else stuff will break
-  ArrayList<Board> pastPositions;
-  ArrayList<Board> duplicatedPositions;
+  //keys of the positions since the last capture or pawn move for three-fold repitition
+  //shared between copies of the game, it is replaced rather than changed
+  History history;
+  
+  //the last move or promotion made, linked back to the ones before, null at the start
+  //moves taken back are kept to be made again until a different move is made
+  UndoRecord lastMove;
+  Redo undone;
   
   //game status
   public int gameResult; //-1=black win, 0=draw, 1=white win
@@ -22,13 +32,26 @@ public class Game {
   //promotion options
   public String promotionOptions;
   
+  //time taken looking for legal moves in the last result check, only measured when profiling
+  long anyMovesTime;
+  
+  //first byte of the binary encoding, changed whenever the format changes
+  //version 1 stored the history as boards, it can still be read
+  static final int ENCODING_VERSION = 2;
+  
   public Game(String fen,int pawnRow,int pawnSquares,int queenRookColumn,
       int kingRookColumn, String promotionOptions, boolean friendlyFire) {
     this.position = new Board(fen,pawnRow,pawnSquares,queenRookColumn,kingRookColumn,friendlyFire);
     this.checkResult();
-    this.pastPositions = new ArrayList<>();
-    this.pastPositions.add(new Board(this.position));
-    this.duplicatedPositions = new ArrayList<>();
+    this.history = new History(this.position.hash(),null);
+    this.promotionOptions = promotionOptions;
+  }
+  
+  public Game(Board position,String promotionOptions) {
+    //starts a game from a position, the board is copied
+    this.position = new Board(position);
+    this.checkResult();
+    this.history = new History(this.position.hash(),null);
     this.promotionOptions = promotionOptions;
   }
   
@@ -38,15 +61,38 @@ public class Game {
     this.endCause = original.endCause;
     this.promotionOptions = original.promotionOptions;
     
-    //deep copy ArayLists
-    this.pastPositions = new ArrayList<>();
-    for (Board pastPosition : original.pastPositions) {
-      this.pastPositions.add(pastPosition);
+    //the history and moves are never changed so they can be shared
+    this.history = original.history;
+    this.lastMove = original.lastMove;
+    this.undone = original.undone;
+  }
+  
+  public Game(ByteBuffer buffer) {
+    //reads a game written by write
+    int version = buffer.get();
+    if (version != ENCODING_VERSION && version != 1) {
+      throw new IllegalArgumentException("unknown game encoding version " + version);
     }
+    this.position = new Board(buffer);
+    this.gameResult = buffer.get();
+    this.endCause = Game.readString(buffer);
+    this.promotionOptions = Game.readString(buffer);
     
-    this.duplicatedPositions = new ArrayList<>();
-    for (Board duplicatedPosition : original.duplicatedPositions) {
-      this.duplicatedPositions.add(duplicatedPosition);
+    this.history = null;
+    int pastCount = Board.readInt(buffer);
+    if (version == 1) {
+      //the history was stored as positions without the board size and rules, then the repeated ones
+      for (int i=0;i<pastCount;i++) {
+        this.history = new History(new Board(this.position,buffer).hash(),this.history);
+      }
+      int duplicatedCount = Board.readInt(buffer);
+      for (int i=0;i<duplicatedCount;i++) {
+        new Board(this.position,buffer);
+      }
+      return;
+    }
+    for (int i=0;i<pastCount;i++) {
+      this.history = new History(buffer.getLong(),this.history);
     }
   }
   
@@ -56,34 +102,97 @@ public class Game {
   }
   
   public void makeMove(int[] startSquare,int[] endSquare) {
+    this.makeMove(startSquare,endSquare,true);
+  }
+  
+  void makeMove(int[] startSquare,int[] endSquare,boolean checkMoves) {
+    UndoRecord undo = new UndoRecord(this,startSquare,endSquare,(char) 0);
+    this.position.movePiece(startSquare,endSquare,undo);
+    this.moveMade(undo,checkMoves);
+  }
+  
+  void moveMade(UndoRecord undo) {
+    this.moveMade(undo,true);
+  }
+  
+  void moveMade(UndoRecord undo,boolean checkMoves) {
+    //updates the game after a move has been made on the board
+    //checkmate and stalemate are left for findMate unless checkMoves is set
     Board board = this.position;
+    this.lastMove = undo;
+    this.undone = null;
     
-    board.movePiece(startSquare,endSquare);
-    
-    //test moving this to the proper location
-    boolean[] castling = new boolean[] {
-      board.castleRights[0],
-      board.castleRights[1],
-      board.castleRights[2],
-      board.castleRights[3]
-    };
-    
-    if (board.halfmoveClock==0 || !Arrays.equals(castling,board.castleRights)) {
-      this.pastPositions = new ArrayList<>();
-      this.duplicatedPositions = new ArrayList<>();
+    if (board.halfmoveClock==0 || !Arrays.equals(undo.castleRights,board.castleRights)) {
+      this.history = null;
     }
     
-    this.checkResult();
+    this.checkResult(checkMoves);
    
-    this.pastPositions.add(new Board(board));
+    this.history = new History(board.hash(),this.history);
     
     if (board.promotionAvailable && (this.promotionOptions.length() == 1)) {
-      this.promotePiece(this.promotionOptions.charAt(0));
+      this.promotePiece(this.promotionOptions.charAt(0),checkMoves);
+    }
+  }
+  
+  public boolean makeMove(String move) {
+    return this.makeMove(move,true);
+  }
+  
+  boolean makeMove(String move,boolean checkMoves) {
+    //plays a move in coordinate notation e.g. e2e4 or e7e8q, returns false if it isn't legal
+    Board board = this.position;
+    int[][] squares = Board.parseMove(move);
+    if (squares == null || !board.isMoveValid(squares[0],squares[1])) {
+      return false;
+    }
+    
+    //the promotion piece has to be known before moving
+    char promotion = Character.toLowerCase(move.charAt(move.length()-1));
+    boolean promoting = board.isPromotion(squares[0],squares[1]) && this.promotionOptions.length() > 1;
+    if (promoting && this.promotionOptions.indexOf(promotion) == -1) {
+      return false;
     }
+    
+    this.makeMove(squares[0],squares[1],checkMoves);
+    if (promoting) {
+      this.promotePiece(promotion,checkMoves);
+    }
+    return true;
+  }
+  
+  public List<String> legalMoves(String square) {
+    //squares the piece on a square e.g. e2 can move to, for highlighting them
+    //the moves are found once per position, so checking the move played is a lookup
+    Board board = this.position;
+    BitSet moves = board.legalMoves(Board.algebraicToNumber(square));
+    ArrayList<String> squares = new ArrayList<>(moves.cardinality());
+    for (int i=moves.nextSetBit(0);i>=0;i=moves.nextSetBit(i+1)) {
+      squares.add(Board.appendSquare(new StringBuilder(6),i/board.height,i%board.height).toString());
+    }
+    return squares;
   }
   
   public boolean checkResult() {
-    //checks if the game is over
+    return this.checkResult(true);
+  }
+  
+  boolean checkResult(boolean checkMoves) {
+    Profiling.Listener listener = Profiling.listener;
+    if (listener == null) {
+      return this.findResult(false,checkMoves);
+    }
+    long startTime = System.nanoTime();
+    boolean result = this.findResult(true,checkMoves);
+    long time = System.nanoTime() - startTime;
+    listener.resultChecked(this.position,this.position.gameOver ? this.endCause : null,
+        this.anyMovesTime,time);
+    return result;
+  }
+  
+  boolean findResult(boolean timed,boolean checkMoves) {
+    //checks if the game is over, checkmate and stalemate only if checkMoves is set
+    this.anyMovesTime = 0;
     
     //50-move rule
     if (this.position.halfmoveClock>100) {
@@ -93,28 +202,36 @@ public class Game {
       return true;
     }
     
-    //3-fold repitition
-    if (!(null == this.duplicatedPositions)) {
-      for (Board duplicatedPosition : this.duplicatedPositions) {
-        if (this.position.equals(duplicatedPosition)) {
-          this.position.gameOver = true;
-          this.gameResult = 0;
-          this.endCause = "Draw by 3-fold repitition";
-          return true;
-        }
-      }
+    //3-fold repitition, the position has been reached twice before
+    if (History.count(this.history,this.position.hash()) >= 2) {
+      this.position.gameOver = true;
+      this.gameResult = 0;
+      this.endCause = "Draw by 3-fold repitition";
+      return true;
     }
     
-    if (!(null == this.pastPositions)) {
-      for (Board pastPosition : this.pastPositions) {
-        if (this.position.equals(pastPosition)) {
-          this.duplicatedPositions.add(new Board(this.position));
-        }
-      }
+    //checkmate/stalemate, only left for later if the game doesn't end on material
+    if ((checkMoves || !this.position.isSufficientMaterial()) && this.findMate(timed)) {
+      return true;
+    }
+    
+    //insufficient material
+    // occurs when the non-kings are incapable of attacking 2 consecutive squares
+    if (!this.position.isSufficientMaterial()) {
+      this.position.gameOver = true;
+      this.gameResult = 0;
+      this.endCause = "Draw by insufficient material";
     }
     
-    //checkmate/stalemate
-    if (!this.position.anyMoves()) {
+    return false;
+  }
+  
+  boolean findMate(boolean timed) {
+    //checkmate or stalemate if the side to move has no moves
+    long anyMovesStart = timed ? System.nanoTime() : 0;
+    boolean anyMoves = this.position.anyMoves();
+    this.anyMovesTime = timed ? System.nanoTime() - anyMovesStart : 0;
+    if (!anyMoves) {
       this.position.gameOver = true;
       if (this.position.inCheck) {
         //checkmate
@@ -134,36 +251,187 @@ public class Game {
       }
       return true;
     }
-    
-    //insufficient material
-    // occurs when the non-kings are incapable of attacking 2 consecutive squares
-    if (!this.position.isSufficientMaterial()) {
-      this.position.gameOver = true;
-      this.gameResult = 0;
-      this.endCause = "Draw by insufficient material";
-    }
-    
     return false;
   }
   
   public boolean promotePiece(char piece) {
+    return this.promotePiece(piece,true);
+  }
+  
+  boolean promotePiece(char piece,boolean checkMoves) {
     Board board = this.position;
     if (board.promotionAvailable && (this.promotionOptions.indexOf(piece) != -1)) {
-      int[] square = board.promotionSquare;
-      int side = board.boardstate[square[0]][square[1]].side;
-      board.boardstate[square[0]][square[1]] = new Piece((side==1) ? Character.toUpperCase(piece) : piece);
-      board.promotionAvailable = false;
-      board.promotionSquare = new int[] {-1,-1};
+      UndoRecord undo = new UndoRecord(this,board.promotionSquare,board.promotionSquare,piece);
+      board.promotePiece(piece,undo);
+      this.lastMove = undo;
+      this.undone = null;
       
-      //check the new position for check/checkmate
-      board.detectCheck();
-      this.checkResult();
+      //check the new position for checkmate
+      this.checkResult(checkMoves);
       
       //add the current position to the past positions
-      this.pastPositions.add(new Board(board));
+      this.history = new History(board.hash(),this.history);
       
       return true;
     }
     return false;
   }
+  
+  public boolean undo() {
+    //takes back the last move along with its promotion, false if there is nothing to take back
+    UndoRecord undo = this.lastMove;
+    if (undo == null) {
+      return false;
+    }
+    this.takeBack(undo);
+    if (undo.promotion != 0 && this.lastMove != null) {
+      this.takeBack(this.lastMove);
+    }
+    return true;
+  }
+  
+  void takeBack(UndoRecord undo) {
+    this.position.undo(undo);
+    this.gameResult = undo.gameResult;
+    this.endCause = undo.endCause;
+    this.history = undo.history;
+    this.lastMove = undo.previous;
+    this.undone = new Redo(undo,this.undone);
+  }
+  
+  public boolean redo() {
+    //makes the last move taken back again, false if there isn't one
+    Redo redo = this.undone;
+    if (redo == null) {
+      return false;
+    }
+    UndoRecord move = redo.record;
+    redo = redo.next;
+    if (move.promotion == 0) {
+      this.makeMove(move.startSquare,move.endSquare);
+      if (redo != null && redo.record.promotion != 0) {
+        //the promotion is made again with the move, unless there was only one option
+        if (this.position.promotionAvailable) {
+          this.promotePiece(redo.record.promotion);
+        }
+        redo = redo.next;
+      }
+    }
+    else {
+      this.promotePiece(move.promotion);
+    }
+    this.undone = redo;
+    return true;
+  }
+  
+  public List<String> moveList() {
+    //the moves made since the start of the game in coordinate notation
+    ArrayList<String> moves = new ArrayList<>();
+    char promotion = 0;
+    for (UndoRecord undo=this.lastMove;undo!=null;undo=undo.previous) {
+      if (undo.promotion != 0) {
+        promotion = undo.promotion;
+      }
+      else {
+        moves.add(promotion == 0 ? undo.move() : undo.move() + promotion);
+        promotion = 0;
+      }
+    }
+    Collections.reverse(moves);
+    return moves;
+  }
+  
+  public boolean replay(List<String> moves) {
+    //goes to the position after moves from the start of the game, keeping the moves already made
+    //that match and taking back the rest, false with the game unchanged if a move isn't legal
+    List<String> played = this.moveList();
+    int common = 0;
+    while (common < played.size() && common < moves.size() &&
+        played.get(common).equalsIgnoreCase(moves.get(common))) {
+      common++;
+    }
+    for (int i=common;i<played.size();i++) {
+      this.undo();
+    }
+    
+    //making a move forgets the moves taken back, they are kept to go back if one isn't legal
+    Redo taken = this.undone;
+    for (int made=common;made<moves.size();made++) {
+      if (!this.makeMove(moves.get(made))) {
+        //go back to where the game was, the moves to redo end up as they were
+        for (int i=made;i>common;i--) {
+          this.undo();
+        }
+        this.undone = taken;
+        for (int i=common;i<played.size();i++) {
+          this.redo();
+        }
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  static class Redo {
+    //moves taken back, the next one to make again first
+    final UndoRecord record;
+    final Redo next;
+    
+    Redo(UndoRecord record,Redo next) {
+      this.record = record;
+      this.next = next;
+    }
+  }
+  
+  public void write(ByteBuffer buffer) {
+    //writes the position, rules, result and repetition history
+    //throws BufferOverflowException if there isn't space for encodedSize() bytes
+    //or IllegalArgumentException if a piece letter isn't ASCII, see Board.write
+    buffer.put((byte) ENCODING_VERSION);
+    this.position.write(buffer);
+    buffer.put((byte) this.gameResult);
+    Game.writeString(buffer,this.endCause);
+    Game.writeString(buffer,this.promotionOptions);
+    //the history is written oldest first
+    long[] keys = History.toArray(this.history);
+    Board.writeInt(buffer,keys.length);
+    for (long key : keys) {
+      buffer.putLong(key);
+    }
+  }
+  
+  public int encodedSize() {
+    int length = History.length(this.history);
+    return 2 + this.position.encodedSize() + Game.stringSize(this.endCause) +
+        Game.stringSize(this.promotionOptions) + Board.intSize(length) + 8*length;
+  }
+  
+  static void writeString(ByteBuffer buffer,String value) {
+    //length + 1 then UTF-8, 0 for null
+    if (value == null) {
+      Board.writeInt(buffer,0);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    Board.writeInt(buffer,bytes.length+1);
+    buffer.put(bytes);
+  }
+  
+  static String readString(ByteBuffer buffer) {
+    int length = Board.readInt(buffer)-1;
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes,StandardCharsets.UTF_8);
+  }
+  
+  static int stringSize(String value) {
+    if (value == null) {
+      return 1;
+    }
+    int length = value.getBytes(StandardCharsets.UTF_8).length;
+    return Board.intSize(length+1) + length;
+  }
 }
@@ -0,0 +1,438 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+public class GameArchive implements Closeable {
+  /*
+  Stores games on disk in a directory with 2 files, both only ever appended to
+  games.log:     each game is its length (int) then the starting board as written by Board.write,
+                 the promotion options, the result and the moves
+  positions.idx: a header then (position hash, game offset) pairs (longs) for every position
+                 in every game, the first sortedCount pairs are sorted by hash and the rest
+                 are in the order the games were added
+  The sorted part of the index and the log are memory-mapped, the unsorted part is kept in memory
+  until compact sorts it into the rest. A mapping can't be over 2GB, so the sorted part is mapped
+  in segments of 2^26 entries and logs that are too big have each game mapped as it is read
+  Moves are the start and end square numbers (column*height+row) as varints, the end square
+  doubled with 1 added when a promotion letter follows
+  */
+
+  static final int MAGIC = 0x43424741;
+  static final int VERSION = 1;
+
+  //index header: magic, version, sortedCount (long), logEnd (long)
+  static final int HEADER_SIZE = 24;
+  static final int ENTRY_SIZE = 16;
+
+  //entries in each mapped segment of the sorted index, 1GB
+  static final int SEGMENT_BITS = 26;
+  static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+  final File directory;
+  final FileChannel log;
+  FileChannel index;
+
+  //length of the log up to the last complete game
+  long logEnd;
+  //mapped part of the log, remapped when it grows
+  MappedByteBuffer logMap;
+
+  long sortedCount;
+  MappedByteBuffer[] sortedMaps;
+  //games added since the index was last sorted, by position hash
+  HashMap<Long,ArrayList<Long>> unsorted;
+  long unsortedCount;
+
+  public GameArchive(String directory) throws IOException {
+    //opens an archive, creating it if it doesn't exist
+    this.directory = new File(directory);
+    this.directory.mkdirs();
+    this.log = new RandomAccessFile(new File(this.directory,"games.log"),"rw").getChannel();
+    this.index = new RandomAccessFile(new File(this.directory,"positions.idx"),"rw").getChannel();
+
+    if (this.index.size() < HEADER_SIZE) {
+      this.index.truncate(0);
+      this.writeHeader(0,0);
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    this.index.read(header,0);
+    header.flip();
+    if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+      throw new IOException("not a game archive: " + directory);
+    }
+    this.sortedCount = header.getLong();
+    this.logEnd = header.getLong();
+
+    //throw away anything written after the last complete game
+    if (this.log.size() > this.logEnd) {
+      this.log.truncate(this.logEnd);
+    }
+    this.mapSorted();
+    this.loadUnsorted();
+  }
+
+  void writeHeader(long sortedCount,long logEnd) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).putLong(sortedCount).putLong(logEnd);
+    header.flip();
+    this.index.write(header,0);
+  }
+
+  void mapSorted() throws IOException {
+    this.sortedMaps = new MappedByteBuffer[(int) ((this.sortedCount + SEGMENT_MASK) >>> SEGMENT_BITS)];
+    for (int i=0;i<this.sortedMaps.length;i++) {
+      long first = (long) i << SEGMENT_BITS;
+      long entries = Math.min(this.sortedCount - first,1L << SEGMENT_BITS);
+      this.sortedMaps[i] = this.index.map(FileChannel.MapMode.READ_ONLY,HEADER_SIZE + first*ENTRY_SIZE,
+          entries*ENTRY_SIZE);
+    }
+  }
+
+  long sortedHash(long entry) {
+    return this.sortedMaps[(int) (entry >>> SEGMENT_BITS)].getLong((int) (entry & SEGMENT_MASK)*ENTRY_SIZE);
+  }
+
+  long sortedOffset(long entry) {
+    return this.sortedMaps[(int) (entry >>> SEGMENT_BITS)].getLong((int) (entry & SEGMENT_MASK)*ENTRY_SIZE+8);
+  }
+
+  void loadUnsorted() throws IOException {
+    this.unsorted = new HashMap<>();
+    this.unsortedCount = 0;
+    long start = HEADER_SIZE + this.sortedCount*ENTRY_SIZE;
+    long end = start + (this.index.size() - start) / ENTRY_SIZE * ENTRY_SIZE;
+    ByteBuffer entries = ByteBuffer.allocate(ENTRY_SIZE*4096);
+    long position = start;
+    while (position < end) {
+      entries.clear();
+      entries.limit((int) Math.min(entries.capacity(),end-position));
+      while (entries.hasRemaining()) {
+        this.index.read(entries,position + entries.position());
+      }
+      entries.flip();
+      while (entries.hasRemaining()) {
+        long hash = entries.getLong();
+        long offset = entries.getLong();
+        if (offset >= this.logEnd) {
+          //the game these are for never finished being written
+          end = position;
+          break;
+        }
+        this.addUnsorted(hash,offset);
+        position += ENTRY_SIZE;
+      }
+    }
+    this.index.truncate(end);
+  }
+
+  void addUnsorted(long hash,long offset) {
+    ArrayList<Long> offsets = this.unsorted.get(hash);
+    if (offsets == null) {
+      offsets = new ArrayList<>(1);
+      this.unsorted.put(hash,offsets);
+    }
+    offsets.add(offset);
+    this.unsortedCount++;
+  }
+
+  public synchronized long add(ArchivedGame game) throws IOException {
+    //appends a game and indexes its positions, returns its offset
+    //the moves are checked first, IllegalArgumentException if one isn't legal
+    Game replay = new Game(game.start);
+    Board start = game.start.position;
+    int size = 4 + start.encodedSize() + Game.stringSize(replay.promotionOptions) + 1 +
+        Board.intSize(game.moves.size());
+    ArrayList<int[]> moves = new ArrayList<>();
+    HashSet<Long> hashes = new HashSet<>();
+    hashes.add(start.hash());
+    for (String move : game.moves) {
+      int[][] squares = Board.parseMove(move);
+      Board board = replay.position;
+      boolean promotion = squares != null && board.isPromotion(squares[0],squares[1]) &&
+          replay.promotionOptions.length() > 1;
+      if (squares == null || !replay.makeMove(move)) {
+        throw new IllegalArgumentException("illegal move " + move);
+      }
+      int[] encoded = new int[] {
+        squares[0][0]*board.height + squares[0][1],
+        (squares[1][0]*board.height + squares[1][1])*2 + (promotion ? 1 : 0),
+        promotion ? Character.toLowerCase(move.charAt(move.length()-1)) : 0
+      };
+      moves.add(encoded);
+      size += Board.intSize(encoded[0]) + Board.intSize(encoded[1]) + (promotion ? 1 : 0);
+      hashes.add(replay.position.hash());
+    }
+
+    ByteBuffer record = ByteBuffer.allocate(size);
+    record.putInt(size-4);
+    start.write(record);
+    Game.writeString(record,replay.promotionOptions);
+    record.put((byte) game.result);
+    Board.writeInt(record,moves.size());
+    for (int[] move : moves) {
+      Board.writeInt(record,move[0]);
+      Board.writeInt(record,move[1]);
+      if ((move[1] & 1) != 0) {
+        record.put((byte) move[2]);
+      }
+    }
+    record.flip();
+    long offset = this.logEnd;
+    while (record.hasRemaining()) {
+      this.log.write(record,offset + record.position());
+    }
+
+    //index entries go after the game and the header is updated last, so a crash can't leave
+    //the index pointing at half a game
+    ByteBuffer entries = ByteBuffer.allocate(hashes.size()*ENTRY_SIZE);
+    for (long hash : hashes) {
+      entries.putLong(hash).putLong(offset);
+      this.addUnsorted(hash,offset);
+    }
+    entries.flip();
+    long indexEnd = this.index.size();
+    while (entries.hasRemaining()) {
+      this.index.write(entries,indexEnd + entries.position());
+    }
+    this.logEnd = offset + size;
+    this.writeHeader(this.sortedCount,this.logEnd);
+    return offset;
+  }
+
+  public synchronized long size() {
+    //bytes used by the games, offsets of games are less than this
+    return this.logEnd;
+  }
+
+  public synchronized long next(long offset) throws IOException {
+    //offset of the game after the one at offset, size() after the last game
+    return offset + 4 + this.record(offset,4).getInt(0);
+  }
+
+  public synchronized ArchivedGame get(long offset) throws IOException {
+    int length = this.record(offset,4).getInt(0);
+    ByteBuffer record = this.record(offset,4+length);
+    record.position(4);
+    Board start = new Board(record);
+    String promotionOptions = Game.readString(record);
+    int result = record.get();
+    int moveCount = Board.readInt(record);
+    ArrayList<String> moves = new ArrayList<>(moveCount);
+    StringBuilder move = new StringBuilder();
+    for (int i=0;i<moveCount;i++) {
+      int startSquare = Board.readInt(record);
+      int endSquare = Board.readInt(record);
+      move.setLength(0);
+      Board.appendSquare(move,startSquare/start.height,startSquare%start.height);
+      Board.appendSquare(move,(endSquare>>1)/start.height,(endSquare>>1)%start.height);
+      if ((endSquare & 1) != 0) {
+        move.append((char) record.get());
+      }
+      moves.add(move.toString());
+    }
+    return new ArchivedGame(new Game(start,promotionOptions),moves,result,offset);
+  }
+
+  ByteBuffer record(long offset,int length) throws IOException {
+    //the bytes of a game, read through the mapped log
+    if (offset < 0 || offset + length > this.logEnd) {
+      throw new IllegalArgumentException("no game at offset " + offset);
+    }
+    if (this.logMap == null || offset + length > this.logMap.capacity()) {
+      if (this.logEnd > Integer.MAX_VALUE) {
+        //too big to map in one piece, just map this game
+        return this.log.map(FileChannel.MapMode.READ_ONLY,offset,length);
+      }
+      this.logMap = this.log.map(FileChannel.MapMode.READ_ONLY,0,this.logEnd);
+    }
+    ByteBuffer record = this.logMap.duplicate();
+    record.position((int) offset);
+    record.limit((int) offset + length);
+    return record.slice();
+  }
+
+  public synchronized long[] find(Board position) {
+    //offsets of every game that reached the position, in the order they were added
+    long hash = position.hash();
+    long count = this.sortedCount;
+    long low = 0;
+    long high = count;
+    while (low < high) {
+      long middle = (low + high) >>> 1;
+      if (this.sortedHash(middle) < hash) {
+        low = middle+1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    long end = low;
+    while (end < count && this.sortedHash(end) == hash) {
+      end++;
+    }
+    ArrayList<Long> recent = this.unsorted.get(hash);
+    int found = (int) (end-low);
+    long[] offsets = new long[found + (recent == null ? 0 : recent.size())];
+    for (int i=0;i<found;i++) {
+      offsets[i] = this.sortedOffset(low+i);
+    }
+    if (recent != null) {
+      for (int i=0;i<recent.size();i++) {
+        offsets[found+i] = recent.get(i);
+      }
+    }
+    return offsets;
+  }
+
+  public synchronized List<ArchivedGame> gamesReaching(Board position) throws IOException {
+    ArrayList<ArchivedGame> games = new ArrayList<>();
+    for (long offset : this.find(position)) {
+      games.add(this.get(offset));
+    }
+    return games;
+  }
+
+  public synchronized void compact() throws IOException {
+    //merges the recent games into the sorted part of the index
+    if (this.unsortedCount == 0) {
+      return;
+    }
+    //the recent hashes are sorted and merged with the old entries as they are read from the map
+    long[] keys = new long[this.unsorted.size()];
+    int count = 0;
+    for (long hash : this.unsorted.keySet()) {
+      keys[count] = hash;
+      count++;
+    }
+    Arrays.sort(keys);
+
+    //write the merged index next to the old one then swap them
+    File merged = new File(this.directory,"positions.idx.new");
+    try (FileChannel output = new RandomAccessFile(merged,"rw").getChannel()) {
+      output.truncate(0);
+      ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE*4096);
+      buffer.putInt(MAGIC).putInt(VERSION).putLong(this.sortedCount + this.unsortedCount).putLong(this.logEnd);
+      //the header is written on its own so the entries fill the buffer exactly
+      long position = GameArchive.flush(output,buffer,0);
+      long old = 0;
+      for (long key : keys) {
+        //old entries for the same hash go first, so games stay in the order they were added
+        while (old < this.sortedCount && this.sortedHash(old) <= key) {
+          position = GameArchive.put(output,buffer,position,this.sortedHash(old),this.sortedOffset(old));
+          old++;
+        }
+        for (long offset : this.unsorted.get(key)) {
+          position = GameArchive.put(output,buffer,position,key,offset);
+        }
+      }
+      while (old < this.sortedCount) {
+        position = GameArchive.put(output,buffer,position,this.sortedHash(old),this.sortedOffset(old));
+        old++;
+      }
+      GameArchive.flush(output,buffer,position);
+      output.force(true);
+    }
+    this.index.close();
+    File indexFile = new File(this.directory,"positions.idx");
+    if (!merged.renameTo(indexFile)) {
+      throw new IOException("couldn't replace " + indexFile);
+    }
+    this.index = new RandomAccessFile(indexFile,"rw").getChannel();
+    this.sortedCount += this.unsortedCount;
+    this.unsorted = new HashMap<>();
+    this.unsortedCount = 0;
+    this.mapSorted();
+  }
+
+  static long put(FileChannel output,ByteBuffer buffer,long position,long hash,long offset)
+      throws IOException {
+    //adds an entry to the merged index, writing the buffer out when it fills
+    buffer.putLong(hash).putLong(offset);
+    return buffer.hasRemaining() ? position : GameArchive.flush(output,buffer,position);
+  }
+
+  static long flush(FileChannel output,ByteBuffer buffer,long position) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      position += output.write(buffer,position);
+    }
+    buffer.clear();
+    return position;
+  }
+
+  public synchronized void flush() throws IOException {
+    //makes sure everything added is on disk
+    this.log.force(false);
+    this.index.force(false);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    this.flush();
+    this.log.close();
+    this.index.close();
+  }
+
+  public static void main(String[] args) throws IOException {
+    //usage: GameArchive <archive> import <games>
+    //       GameArchive <archive> compact
+    //       GameArchive <archive> find <fen;pawnRow;pawnSquares;queenRookColumn;kingRookColumn;promotionOptions;friendlyFire>
+    if (args.length < 2) {
+      System.err.println("usage: GameArchive <archive> import <games> | compact | find <position>");
+      System.exit(1);
+    }
+    try (GameArchive archive = new GameArchive(args[0])) {
+      switch (args[1]) {
+        case "import":
+          int games = 0;
+          try (BufferedReader reader = new BufferedReader(new FileReader(args[2]))) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+              number++;
+              line = line.trim();
+              if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+              }
+              try {
+                archive.add(ArchivedGame.parse(line));
+                games++;
+              }
+              catch (RuntimeException e) {
+                System.err.println("line " + number + ": " + e.getMessage());
+              }
+            }
+          }
+          archive.compact();
+          System.out.println(games + " games added");
+          break;
+        case "compact":
+          archive.compact();
+          break;
+        case "find":
+          //the position is a game line without moves
+          Board position = ArchivedGame.parse(args[2] + "; ").start.position;
+          for (ArchivedGame game : archive.gamesReaching(position)) {
+            System.out.println(game);
+          }
+          break;
+        default:
+          System.err.println("unknown command " + args[1]);
+          System.exit(1);
+      }
+    }
+  }
+}
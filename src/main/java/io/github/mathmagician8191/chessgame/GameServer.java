@@ -0,0 +1,238 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class GameServer {
+  /*
+  Hosts many games against the engine in one process
+  Sessions never block the caller: moves are requested as Search handles and the
+  searches run on a pool with one thread per core, in the order they were asked for
+  Each session has at most one search at a time so a busy game can't crowd out the rest
+  The transposition tables are shared between games and split by variant
+  A table's entries age once its games have made about one search each, rather than on
+  every search, so entries a game is still using aren't the first to be replaced
+  */
+
+  final ExecutorService workers;
+  final ConcurrentHashMap<Long,Session> sessions;
+  final AtomicLong nextId;
+
+  //tables shared by every game, a variant always uses the same one
+  final TranspositionTable[] tables;
+  //searches on each table since it last aged
+  final AtomicInteger[] tableSearches;
+
+  //opening book for every game, null for none
+  volatile OpeningBook book;
+
+  public GameServer(int threads,int tableMegabytes,int tablePartitions) {
+    final AtomicInteger threadNumber = new AtomicInteger();
+    this.workers = new ThreadPoolExecutor(threads,threads,0,TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(),new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable task) {
+        Thread thread = new Thread(task,"game-server-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.sessions = new ConcurrentHashMap<>();
+    this.nextId = new AtomicLong();
+
+    //split the memory evenly, no tables if there is no memory for them
+    if (tableMegabytes > 0 && tablePartitions > 0) {
+      this.tables = new TranspositionTable[tablePartitions];
+      this.tableSearches = new AtomicInteger[tablePartitions];
+      for (int i=0;i<tablePartitions;i++) {
+        this.tables[i] = new TranspositionTable(Math.max(1,tableMegabytes/tablePartitions));
+        this.tableSearches[i] = new AtomicInteger();
+      }
+    }
+    else {
+      this.tables = new TranspositionTable[0];
+      this.tableSearches = new AtomicInteger[0];
+    }
+  }
+
+  public GameServer() {
+    //one search per core and a table for each of a few variants
+    this(Runtime.getRuntime().availableProcessors(),256,4);
+  }
+
+  public void setBook(String path) throws IOException {
+    //games play from the book while they are in it, null turns the book off
+    this.book = path == null ? null : new OpeningBook(path);
+  }
+
+  public Session openSession(Game game,int depth,int quiescenceDepth,long moveTime,long timeBudget) {
+    //moveTime limits each search and timeBudget the whole game, in milliseconds, 0 for no limit
+    Session session = new Session(this.nextId.incrementAndGet(),game,depth,quiescenceDepth,
+        moveTime,timeBudget);
+    this.sessions.put(session.id,session);
+    return session;
+  }
+
+  public Session getSession(long id) {
+    return this.sessions.get(id);
+  }
+
+  public int sessionCount() {
+    return this.sessions.size();
+  }
+
+  public void closeSession(Session session) {
+    //used when a game ends or a player leaves, stops any search for it
+    session.cancelSearch();
+    this.sessions.remove(session.id);
+  }
+
+  public void shutdown() {
+    for (Session session : this.sessions.values()) {
+      session.cancelSearch();
+    }
+    this.sessions.clear();
+    this.workers.shutdownNow();
+  }
+
+  TranspositionTable tableFor(Board board) {
+    if (this.tables.length == 0) {
+      return null;
+    }
+    long variant = Board.mix(((long) board.width << 48) + ((long) board.height << 32) +
+        (board.pawnRow << 24) + (board.pawnSquares << 16) + (board.friendlyFire ? 1 : 0));
+    return this.tables[(int) ((variant >>> 1) % this.tables.length)];
+  }
+
+  void searchStarted(TranspositionTable table) {
+    //ages a table once there have been as many searches on it as there are games,
+    //so the games searching it have each had about one search since it last aged
+    for (int i=0;i<this.tables.length;i++) {
+      if (this.tables[i] == table) {
+        AtomicInteger searches = this.tableSearches[i];
+        if (searches.incrementAndGet() >= Math.max(1,this.sessions.size())) {
+          searches.set(0);
+          table.newSearch();
+        }
+      }
+    }
+  }
+
+  public class Session {
+    /*
+    One game against the engine
+    */
+
+    public final long id;
+    final Game game;
+    final int depth;
+    final int quiescenceDepth;
+    final long moveTime;
+
+    //time left for the whole game, 0 for no limit
+    long timeBudget;
+    final boolean budgeted;
+
+    Search search;
+
+    Session(long id,Game game,int depth,int quiescenceDepth,long moveTime,long timeBudget) {
+      this.id = id;
+      this.game = game;
+      this.depth = depth;
+      this.quiescenceDepth = quiescenceDepth;
+      this.moveTime = moveTime;
+      this.timeBudget = timeBudget;
+      this.budgeted = timeBudget > 0;
+    }
+
+    public synchronized Game getGame() {
+      return new Game(this.game);
+    }
+
+    public synchronized boolean makeMove(String move) {
+      //plays the opponent's move, any search for the old position is abandoned
+      this.cancelSearch();
+      return this.game.makeMove(move);
+    }
+
+    public synchronized boolean undo() {
+      //takes back the last move, any search for the position is abandoned
+      this.cancelSearch();
+      return this.game.undo();
+    }
+
+    public synchronized Search requestMove(SearchListener listener) {
+      //queues a search for the engine's move, the result comes through the returned handle
+      this.cancelSearch();
+      Engine root = new Engine(this.game,this.depth,this.quiescenceDepth);
+      root.setTable(GameServer.this.tableFor(this.game.position));
+      root.setBook(GameServer.this.book);
+
+      long limit = this.moveTime;
+      if (this.budgeted) {
+        //spread the remaining time over the rest of the game
+        long share = Math.max(1,this.timeBudget/20);
+        limit = limit > 0 ? Math.min(limit,share) : share;
+      }
+
+      final Search search = new Search(root,this.depth,listener);
+      search.setTimeLimit(limit);
+      //the server ages the shared table
+      search.agesTable = false;
+      this.search = search;
+      GameServer.this.workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          Session.this.runSearch(search);
+        }
+      });
+      return search;
+    }
+
+    public synchronized boolean playMove(Search search) {
+      //plays the move found by a finished search if it is still for the current position
+      if (search != this.search || !search.isDone() || search.isCancelled()) {
+        return false;
+      }
+      this.search = null;
+      Engine result = search.result;
+      if (result == null || result == search.root) {
+        //no moves were possible
+        return false;
+      }
+      return this.game.makeMove(Board.moveToString(search.root.position,result.position));
+    }
+
+    void runSearch(Search search) {
+      if (search.stopped) {
+        //cancelled while waiting in the queue
+        search.done.countDown();
+        return;
+      }
+      long startTime = System.nanoTime();
+      if (search.root.table != null) {
+        GameServer.this.searchStarted(search.root.table);
+      }
+      search.run();
+      if (this.budgeted) {
+        synchronized (this) {
+          this.timeBudget = Math.max(1,this.timeBudget - (System.nanoTime() - startTime) / 1000000);
+        }
+      }
+    }
+
+    public synchronized void cancelSearch() {
+      if (this.search != null) {
+        this.search.cancel(true);
+        this.search = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package io.github.mathmagician8191.chessgame;
+
+class History {
+  /*
+  Keys of the positions in a game since the last capture or pawn move, newest first
+  A history is never changed once made, adding a position makes a new head sharing the rest,
+  so copies of a game share their history and copying it takes no time
+  The empty history is null
+  */
+
+  final long key;
+  final History previous;
+  final int length;
+
+  History(long key,History previous) {
+    this.key = key;
+    this.previous = previous;
+    this.length = previous == null ? 1 : previous.length+1;
+  }
+
+  static int length(History history) {
+    return history == null ? 0 : history.length;
+  }
+
+  static int count(History history,long key) {
+    //how many times a position is in the history
+    int count = 0;
+    for (History entry=history;entry!=null;entry=entry.previous) {
+      if (entry.key == key) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  static long[] toArray(History history) {
+    //the keys oldest first
+    long[] keys = new long[History.length(history)];
+    for (History entry=history;entry!=null;entry=entry.previous) {
+      keys[entry.length-1] = entry.key;
+    }
+    return keys;
+  }
+}
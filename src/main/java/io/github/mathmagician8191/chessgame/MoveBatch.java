@@ -0,0 +1,143 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MoveBatch {
+  /*
+  Validates and plays moves sent to many games at once, such as the moves a multiplayer server
+  has received since it last checked
+  Different games are played in parallel on a pool of threads, the moves for one game are played
+  by one thread in the order given
+  Checkmate and stalemate are only looked for after the last move each game has in the batch,
+  a move after them would be illegal anyway, so a game pays for one scan of its moves per batch
+  instead of one per move. The other ways for a game to end are checked after every move
+  The games can't be used for anything else until the batch is played
+  */
+
+  public static class Result {
+    /*
+    Whether a move was played, and the status of its game once the batch was played
+    */
+
+    public final boolean legal;
+    public final boolean gameOver;
+    public final int gameResult; //-1=black win, 0=draw, 1=white win
+    public final String endCause;
+
+    Result(boolean legal,Game game) {
+      this.legal = legal;
+      this.gameOver = game.position.gameOver;
+      this.gameResult = game.gameResult;
+      this.endCause = game.endCause;
+    }
+
+    @Override
+    public String toString() {
+      return (this.legal ? "legal" : "illegal") + (this.gameOver ? " " + this.endCause : "");
+    }
+  }
+
+  final ExecutorService workers;
+
+  public MoveBatch(int threads) {
+    final AtomicInteger threadNumber = new AtomicInteger();
+    this.workers = new ThreadPoolExecutor(threads,threads,0,TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(),new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable task) {
+        Thread thread = new Thread(task,"move-batch-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  public MoveBatch() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public List<Result> play(List<Game> games,List<String> moves) throws InterruptedException {
+    //plays moves[i] in games[i] for every i, a game can be in the list more than once
+    if (games.size() != moves.size()) {
+      throw new IllegalArgumentException("expected a move for every game");
+    }
+
+    //the moves for each game in order
+    IdentityHashMap<Game,List<Integer>> grouped = new IdentityHashMap<>();
+    for (int i=0;i<games.size();i++) {
+      List<Integer> indices = grouped.get(games.get(i));
+      if (indices == null) {
+        indices = new ArrayList<>();
+        grouped.put(games.get(i),indices);
+      }
+      indices.add(i);
+    }
+
+    final Result[] results = new Result[games.size()];
+    final List<String> batchMoves = moves;
+    ArrayList<Future<?>> pending = new ArrayList<>(grouped.size());
+    for (Map.Entry<Game,List<Integer>> entry : grouped.entrySet()) {
+      final Game game = entry.getKey();
+      final List<Integer> indices = entry.getValue();
+      pending.add(this.workers.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          MoveBatch.play(game,indices,batchMoves,results);
+          return null;
+        }
+      }));
+    }
+
+    try {
+      for (Future<?> result : pending) {
+        result.get();
+      }
+    }
+    catch (ExecutionException e) {
+      //only a bug can get here, illegal moves are results
+      throw new IllegalStateException(e.getCause());
+    }
+    finally {
+      for (Future<?> result : pending) {
+        result.cancel(true);
+      }
+    }
+    return Arrays.asList(results);
+  }
+
+  static void play(Game game,List<Integer> indices,List<String> moves,Result[] results) {
+    boolean[] legal = new boolean[indices.size()];
+    boolean deferred = false;
+    for (int i=0;i<indices.size();i++) {
+      String move = moves.get(indices.get(i));
+      legal[i] = move != null && game.makeMove(move,false);
+      if (legal[i]) {
+        deferred = true;
+      }
+    }
+    //the one scan for moves, only needed if a move was played
+    if (deferred && !game.position.gameOver) {
+      game.findMate(false);
+    }
+    for (int i=0;i<indices.size();i++) {
+      results[indices.get(i)] = new Result(legal[i],game);
+    }
+  }
+
+  public void shutdown() {
+    this.workers.shutdownNow();
+  }
+}
@@ -0,0 +1,161 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+class MoveTables {
+  /*
+  The moves of every defined piece compiled for one board size, shared by every board of that size
+  For each piece there is an entry for every offset a move can cover on the board:
+  LEAP, the number of squares for a ride, or 0 if the piece can't move that way
+  Attacks are looked for from the attacked square, so every leap and ride direction of any piece
+  is listed once with the set of letters that move that way
+  */
+
+  static final int LEAP = -1;
+
+  static final ConcurrentHashMap<Long,MoveTables> TABLES = new ConcurrentHashMap<>();
+
+  final int width;
+  final int height;
+
+  //the definitions these were compiled from, tables from before a piece was defined are made again
+  final PieceType[] types;
+
+  //moves by letter, null for letters without a definition
+  final int[][] moves;
+  //offsets each defined letter can move by as dx,dy pairs, so moves can be listed without trying every square
+  final int[][] offsets;
+
+  //leaps and rides that attack a square, rides have a limit of 0 if they go to the edge of the board
+  //the letters are sets of PieceType.bit
+  final int[] leapX;
+  final int[] leapY;
+  final int[] leapLetters;
+  final int[] rideX;
+  final int[] rideY;
+  final int[] rideLimit;
+  final int[] rideLetters;
+
+  MoveTables(int width,int height) {
+    this.width = width;
+    this.height = height;
+    this.types = PieceType.types;
+    this.moves = new int[128][];
+    this.offsets = new int[128][];
+
+    ArrayList<int[]> leaps = new ArrayList<>();
+    ArrayList<int[]> rides = new ArrayList<>();
+    for (PieceType type : this.types) {
+      if (type == null || (type.leaps.length == 0 && type.rides.length == 0)) {
+        continue;
+      }
+      int[] moves = new int[(2*width-1)*(2*height-1)];
+      int bit = PieceType.bit(type.letter);
+      //leaps go over rides that reach the same square, as nothing can block them
+      for (int[] ride : type.rides) {
+        for (int[] direction : MoveTables.directions(ride[0],ride[1])) {
+          for (int i=1;ride[2]==0 || i<=ride[2];i++) {
+            int dx = i*direction[0];
+            int dy = i*direction[1];
+            if (Math.abs(dx) >= width || Math.abs(dy) >= height) {
+              break;
+            }
+            if (moves[this.index(dx,dy)] == 0) {
+              moves[this.index(dx,dy)] = i;
+            }
+          }
+          MoveTables.addAttack(rides,direction[0],direction[1],ride[2],bit);
+        }
+      }
+      for (int[] leap : type.leaps) {
+        for (int[] direction : MoveTables.directions(leap[0],leap[1])) {
+          if (Math.abs(direction[0]) < width && Math.abs(direction[1]) < height) {
+            moves[this.index(direction[0],direction[1])] = LEAP;
+            MoveTables.addAttack(leaps,direction[0],direction[1],1,bit);
+          }
+        }
+      }
+      this.moves[type.letter] = moves;
+
+      int count = 0;
+      for (int move : moves) {
+        if (move != 0) {
+          count++;
+        }
+      }
+      int[] offsets = new int[2*count];
+      count = 0;
+      for (int i=0;i<moves.length;i++) {
+        if (moves[i] != 0) {
+          offsets[count] = i/(2*height-1) - (width-1);
+          offsets[count+1] = i%(2*height-1) - (height-1);
+          count += 2;
+        }
+      }
+      this.offsets[type.letter] = offsets;
+    }
+
+    this.leapX = new int[leaps.size()];
+    this.leapY = new int[leaps.size()];
+    this.leapLetters = new int[leaps.size()];
+    for (int i=0;i<leaps.size();i++) {
+      this.leapX[i] = leaps.get(i)[0];
+      this.leapY[i] = leaps.get(i)[1];
+      this.leapLetters[i] = leaps.get(i)[3];
+    }
+    this.rideX = new int[rides.size()];
+    this.rideY = new int[rides.size()];
+    this.rideLimit = new int[rides.size()];
+    this.rideLetters = new int[rides.size()];
+    for (int i=0;i<rides.size();i++) {
+      this.rideX[i] = rides.get(i)[0];
+      this.rideY[i] = rides.get(i)[1];
+      this.rideLimit[i] = rides.get(i)[2];
+      this.rideLetters[i] = rides.get(i)[3];
+    }
+  }
+
+  static MoveTables of(int width,int height) {
+    Long size = ((long) width << 32) | height;
+    MoveTables tables = TABLES.get(size);
+    if (tables == null || tables.types != PieceType.types) {
+      tables = new MoveTables(width,height);
+      TABLES.put(size,tables);
+    }
+    return tables;
+  }
+
+  int index(int dx,int dy) {
+    return (dx+this.width-1)*(2*this.height-1) + dy+this.height-1;
+  }
+
+  int move(char letter,int[] startSquare,int[] endSquare) {
+    //LEAP, the squares ridden or 0, the piece must be defined
+    return this.moves[letter][this.index(endSquare[0]-startSquare[0],endSquare[1]-startSquare[1])];
+  }
+
+  static int[][] directions(int dx,int dy) {
+    //every reflection of a move, 4 if it is straight or diagonal and 8 if not
+    if (dy == 0 || dx == dy) {
+      return new int[][] {
+        {dx,dy},{-dy,dx},{-dx,-dy},{dy,-dx}
+      };
+    }
+    return new int[][] {
+      {dx,dy},{-dx,dy},{dx,-dy},{-dx,-dy},
+      {dy,dx},{-dy,dx},{dy,-dx},{-dy,-dx}
+    };
+  }
+
+  static void addAttack(ArrayList<int[]> attacks,int dx,int dy,int limit,int bit) {
+    //adds a letter to a way of attacking, the ways are kept in the order they were first seen
+    for (int[] attack : attacks) {
+      if (attack[0] == dx && attack[1] == dy && attack[2] == limit) {
+        attack[3] |= bit;
+        return;
+      }
+    }
+    attacks.add(new int[] {dx,dy,limit,bit});
+  }
+}
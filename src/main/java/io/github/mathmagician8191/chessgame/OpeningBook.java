@@ -0,0 +1,149 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Random;
+
+public class OpeningBook {
+  /*
+  Moves to play from known positions, read straight from a memory-mapped file
+  The file is a 12 byte header followed by fixed size entries sorted by position hash:
+    header: magic, version, entry count (ints)
+    entry:  hash (long), start column, start row, end column, end row (shorts),
+            promotion letter (char, 0 for none), weight (unsigned short)
+  Every variant can share one file since the hash includes the variant rules
+  Lookups are a binary search on the mapped file, nothing is copied onto the heap
+  */
+
+  public static final int MAGIC = 0x43424f4b;
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 12;
+  public static final int ENTRY_SIZE = 20;
+
+  final MappedByteBuffer buffer;
+  final int entryCount;
+
+  public OpeningBook(String path) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(path,"r")) {
+      FileChannel channel = file.getChannel();
+      long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        throw new IOException("not an opening book: " + path);
+      }
+      //the mapping stays valid after the file is closed
+      this.buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,size);
+    }
+    if (this.buffer.getInt(0) != MAGIC || this.buffer.getInt(4) != VERSION) {
+      throw new IOException("not an opening book: " + path);
+    }
+    this.entryCount = this.buffer.getInt(8);
+    if (this.entryCount < 0 || HEADER_SIZE + (long) this.entryCount * ENTRY_SIZE > this.buffer.capacity()) {
+      throw new IOException("truncated opening book: " + path);
+    }
+  }
+
+  public int size() {
+    return this.entryCount;
+  }
+
+  public ArrayList<Move> getMoves(Board board) {
+    //every book move for the position, empty if it isn't in the book
+    ArrayList<Move> moves = new ArrayList<>();
+    long hash = board.hash();
+    for (int i=this.firstEntry(hash);i<this.entryCount&&this.key(i)==hash;i++) {
+      moves.add(this.move(i));
+    }
+    return moves;
+  }
+
+  public Move pickMove(Board board,Random random) {
+    //chooses a book move with probability proportional to its weight, null if there are none
+    long hash = board.hash();
+    int first = this.firstEntry(hash);
+    long total = 0;
+    int end = first;
+    for (;end<this.entryCount&&this.key(end)==hash;end++) {
+      total += this.weight(end);
+    }
+    if (total == 0) {
+      return null;
+    }
+    long choice = (long) (random.nextDouble() * total);
+    for (int i=first;i<end;i++) {
+      choice -= this.weight(i);
+      if (choice < 0) {
+        return this.move(i);
+      }
+    }
+    return this.move(end-1);
+  }
+
+  int firstEntry(long hash) {
+    //index of the first entry with a key of at least hash
+    int low = 0;
+    int high = this.entryCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (this.key(middle) < hash) {
+        low = middle+1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  long key(int index) {
+    return this.buffer.getLong(HEADER_SIZE + index*ENTRY_SIZE);
+  }
+
+  int weight(int index) {
+    return this.buffer.getShort(HEADER_SIZE + index*ENTRY_SIZE + 18) & 0xffff;
+  }
+
+  Move move(int index) {
+    int offset = HEADER_SIZE + index*ENTRY_SIZE;
+    return new Move(
+      new int[] {this.buffer.getShort(offset+8),this.buffer.getShort(offset+10)},
+      new int[] {this.buffer.getShort(offset+12),this.buffer.getShort(offset+14)},
+      this.buffer.getChar(offset+16),
+      this.weight(index)
+    );
+  }
+
+  public static class Move {
+    /*
+    A move from the book, the promotion is 0 when the move doesn't promote or there is only one option
+    */
+
+    public final int[] startSquare;
+    public final int[] endSquare;
+    public final char promotion;
+    public final int weight;
+
+    public Move(int[] startSquare,int[] endSquare,char promotion,int weight) {
+      this.startSquare = startSquare;
+      this.endSquare = endSquare;
+      this.promotion = promotion;
+      this.weight = weight;
+    }
+
+    public Engine play(Engine game) {
+      //the position after this move, null if it isn't legal there
+      Board board = game.position;
+      if (!board.isMoveValid(this.startSquare,this.endSquare)) {
+        return null;
+      }
+      Engine result = new Engine(game);
+      result.makeMove(this.startSquare,this.endSquare);
+      if (result.position.promotionAvailable && !result.promotePiece(this.promotion)) {
+        return null;
+      }
+      return result;
+    }
+  }
+}
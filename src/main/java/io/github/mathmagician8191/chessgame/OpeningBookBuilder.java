@@ -0,0 +1,190 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+public class OpeningBookBuilder {
+  /*
+  Builds an opening book from a file of played games, one game per line, or a game archive directory
+  fen;pawnRow;pawnSquares;queenRookColumn;kingRookColumn;promotionOptions;friendlyFire;e2e4 e7e5 ... 1-0
+  The result at the end is optional. Moves get 2 points for each win and 1 for each draw
+  or unknown result, so moves only played by the losing side are left out
+  Games with different rules can go in the same file, each variant hashes differently
+  Blank lines and lines starting with # are ignored
+  */
+
+  static class Entry {
+    long hash;
+    int[] startSquare;
+    int[] endSquare;
+    char promotion;
+    int games;
+    long weight;
+  }
+
+  //entries by position hash and move
+  final HashMap<String,Entry> entries;
+  final int maxPlies;
+
+  public OpeningBookBuilder(int maxPlies) {
+    this.entries = new HashMap<>();
+    this.maxPlies = maxPlies;
+  }
+
+  public void addGame(String line) {
+    this.addGame(ArchivedGame.parse(line));
+  }
+
+  public void addGame(ArchivedGame archived) {
+    Game game = new Game(archived.start);
+    int result = archived.result;
+    boolean known = result != ArchivedGame.UNKNOWN;
+    int length = archived.moves.size();
+
+    //nothing is added until the whole game has been checked
+    ArrayList<Entry> played = new ArrayList<>();
+    for (int i=0;i<Math.min(length,this.maxPlies);i++) {
+      Board board = game.position;
+      int side = board.toMove ? 1 : -1;
+      long hash = board.hash();
+      String text = archived.moves.get(i);
+      int[][] squares = Board.parseMove(text);
+      if (squares == null) {
+        throw new IllegalArgumentException("bad move " + text);
+      }
+      //only keep the promotion when there was a choice, the board changes when the move is made
+      char promotion = board.isPromotion(squares[0],squares[1]) && game.promotionOptions.length() > 1 ?
+          Character.toLowerCase(text.charAt(text.length()-1)) : 0;
+      if (!game.makeMove(text)) {
+        throw new IllegalArgumentException("illegal move " + text);
+      }
+
+      Entry move = new Entry();
+      move.hash = hash;
+      move.startSquare = squares[0];
+      move.endSquare = squares[1];
+      move.promotion = promotion;
+      move.weight = !known ? 1 : result == side ? 2 : result == 0 ? 1 : 0;
+      played.add(move);
+      if (game.position.gameOver) {
+        break;
+      }
+    }
+
+    for (Entry move : played) {
+      String key = move.hash + " " + move.startSquare[0] + "," + move.startSquare[1] + " " +
+          move.endSquare[0] + "," + move.endSquare[1] + " " + (int) move.promotion;
+      Entry entry = this.entries.get(key);
+      if (entry == null) {
+        entry = move;
+        this.entries.put(key,entry);
+      }
+      else {
+        entry.weight += move.weight;
+      }
+      entry.games++;
+    }
+  }
+
+  public int write(String path,int minGames) throws IOException {
+    //writes the book sorted by hash, returns the number of entries
+    ArrayList<Entry> sorted = new ArrayList<>();
+    for (Entry entry : this.entries.values()) {
+      if (entry.games >= minGames && entry.weight > 0) {
+        sorted.add(entry);
+      }
+    }
+    Collections.sort(sorted,new Comparator<Entry>() {
+      @Override
+      public int compare(Entry first,Entry second) {
+        return Long.compare(first.hash,second.hash);
+      }
+    });
+
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+      output.writeInt(OpeningBook.MAGIC);
+      output.writeInt(OpeningBook.VERSION);
+      output.writeInt(sorted.size());
+      for (Entry entry : sorted) {
+        output.writeLong(entry.hash);
+        output.writeShort(entry.startSquare[0]);
+        output.writeShort(entry.startSquare[1]);
+        output.writeShort(entry.endSquare[0]);
+        output.writeShort(entry.endSquare[1]);
+        output.writeChar(entry.promotion);
+        output.writeShort((int) Math.min(entry.weight,0xffff));
+      }
+    }
+    return sorted.size();
+  }
+
+  public static void main(String[] args) throws IOException {
+    //usage: OpeningBookBuilder <games|archive> <book> [-plies <n>] [-min <games>]
+    if (args.length < 2) {
+      System.err.println("usage: OpeningBookBuilder <games|archive> <book> [-plies <n>] [-min <games>]");
+      System.exit(1);
+    }
+    int maxPlies = 20;
+    int minGames = 1;
+    for (int i=2;i<args.length;i++) {
+      switch (args[i]) {
+        case "-plies":
+          maxPlies = Integer.parseInt(args[++i]);
+          break;
+        case "-min":
+          minGames = Integer.parseInt(args[++i]);
+          break;
+        default:
+          System.err.println("unknown option " + args[i]);
+          System.exit(1);
+      }
+    }
+
+    OpeningBookBuilder builder = new OpeningBookBuilder(maxPlies);
+    int games = 0;
+    if (new File(args[0]).isDirectory()) {
+      try (GameArchive archive = new GameArchive(args[0])) {
+        for (long offset=0;offset<archive.size();offset=archive.next(offset)) {
+          try {
+            builder.addGame(archive.get(offset));
+            games++;
+          }
+          catch (RuntimeException e) {
+            System.err.println("game at " + offset + ": " + e.getMessage());
+          }
+        }
+      }
+    }
+    else {
+      try (BufferedReader reader = new BufferedReader(new FileReader(args[0]))) {
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+          number++;
+          line = line.trim();
+          if (line.isEmpty() || line.startsWith("#")) {
+            continue;
+          }
+          try {
+            builder.addGame(line);
+            games++;
+          }
+          catch (RuntimeException e) {
+            System.err.println("line " + number + ": " + e.getMessage());
+          }
+        }
+      }
+    }
+    int entries = builder.write(args[1],minGames);
+    System.out.println(games + " games, " + entries + " book entries");
+  }
+}
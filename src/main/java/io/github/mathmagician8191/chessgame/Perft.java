@@ -0,0 +1,278 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Perft {
+  /*
+  Counts the positions reachable in a number of moves to test move generation
+  The counts can be compared with other programs, and the speed doubles as a benchmark
+  Each promotion option counts as a separate move
+  */
+
+  final String promotionOptions;
+
+  //optional table of results for transpositions, null to disable
+  final PerftTable table;
+
+  public Perft(String promotionOptions,PerftTable table) {
+    this.promotionOptions = promotionOptions;
+    this.table = table;
+  }
+
+  public long perft(Board board,int depth) {
+    if (depth == 0) {
+      return 1;
+    }
+    //moves are made on one scratch board per ply, copied from the board above like SearchContext
+    //each call has its own so threads can share a Perft
+    Board[] boards = new Board[depth+1];
+    boards[0] = board;
+    for (int i=1;i<=depth;i++) {
+      boards[i] = new Board(board);
+    }
+    int[][] targets = new int[depth][board.width*board.height];
+    return this.perft(boards,targets,Perft.squares(board),0,depth);
+  }
+
+  long perft(Board[] boards,int[][] targets,int[][] squares,int ply,int depth) {
+    Board board = boards[ply];
+    if (depth == 1) {
+      //bulk counting, the last moves don't need to be made
+      return this.countMoves(board,boards[ply+1],targets[ply],squares);
+    }
+
+    long hash = 0;
+    if (this.table != null) {
+      hash = board.hash();
+      long stored = this.table.get(hash,depth);
+      if (stored != -1) {
+        return stored;
+      }
+    }
+
+    long nodes = 0;
+    Board child = boards[ply+1];
+    int[] plyTargets = targets[ply];
+    String options = this.promotionOptions;
+    int side = board.toMove ? 1 : -1;
+    for (int[] start : squares) {
+      if (board.boardstate[start[0]][start[1]].side != side) {
+        continue;
+      }
+      for (int target=0, count=Perft.findTargets(board,start,plyTargets);target<count;target++) {
+        int[] end = squares[plyTargets[target]];
+        if (!Perft.makeMove(board,child,start,end)) {
+          continue;
+        }
+        int promotions = child.promotionAvailable ? options.length() : 0;
+        for (int m=0;m==0 || m<promotions;m++) {
+          if (promotions > 0) {
+            if (m > 0) {
+              //each option needs the move made again
+              Perft.makeMove(board,child,start,end);
+            }
+            child.promotePiece(options.charAt(m));
+          }
+          nodes += this.perft(boards,targets,squares,ply+1,depth-1);
+        }
+      }
+    }
+
+    if (this.table != null) {
+      this.table.put(hash,depth,nodes);
+    }
+    return nodes;
+  }
+
+  static boolean makeMove(Board board,Board child,int[] start,int[] end) {
+    //makes a move on the scratch board for the next ply, false if it isn't legal
+    if (!board.isPseudoLegal(start,end)) {
+      return false;
+    }
+    child.copyFrom(board);
+    child.movePiece(start,end);
+    return board.keepsKingSafe(start,end) || !child.leftInCheck();
+  }
+
+  static int findTargets(Board board,int[] start,int[] targets) {
+    //lists the squares the piece on a square might move to and gives how many there are
+    //defined pieces use their offsets, pawns their steps and captures and kings can also castle,
+    //obstacles and pieces without a definition can go to any square
+    int column = start[0];
+    int row = start[1];
+    int height = board.height;
+    Piece piece = board.boardstate[column][row];
+    char letter = piece.letter;
+    int count = 0;
+    if (letter == 'p') {
+      int dy = piece.side;
+      for (int i=1;i<=Math.max(1,board.pawnSquares);i++) {
+        count = Perft.addTarget(board,column,row+i*dy,targets,count);
+      }
+      count = Perft.addTarget(board,column-1,row+dy,targets,count);
+      return Perft.addTarget(board,column+1,row+dy,targets,count);
+    }
+    int[] offsets = letter < 128 && letter != 'o' ? board.moveTables.offsets[letter] : null;
+    if (offsets == null) {
+      for (int i=0, length=board.width*height;i<length;i++) {
+        targets[i] = i;
+      }
+      return board.width*height;
+    }
+    for (int i=0;i<offsets.length;i+=2) {
+      count = Perft.addTarget(board,column+offsets[i],row+offsets[i+1],targets,count);
+    }
+    if (letter == 'k') {
+      count = Perft.addTarget(board,column-2,row,targets,count);
+      count = Perft.addTarget(board,column+2,row,targets,count);
+    }
+    return count;
+  }
+
+  static int addTarget(Board board,int column,int row,int[] targets,int count) {
+    if (column < 0 || row < 0 || column >= board.width || row >= board.height) {
+      return count;
+    }
+    targets[count] = column*board.height+row;
+    return count+1;
+  }
+
+  static int[][] squares(Board board) {
+    //square arrays shared by every move, numbered column*height+row
+    int[][] squares = new int[board.width*board.height][];
+    for (int i=0;i<board.width;i++) {
+      for (int j=0;j<board.height;j++) {
+        squares[i*board.height+j] = new int[] {i,j};
+      }
+    }
+    return squares;
+  }
+
+  public LinkedHashMap<String,Long> divide(Board board,int depth) {
+    //node counts for each move from the position
+    LinkedHashMap<String,Long> result = new LinkedHashMap<>();
+    for (Board child : this.getMoves(board)) {
+      result.put(Board.moveToString(board,child),this.perft(child,depth-1));
+    }
+    return result;
+  }
+
+  long countMoves(Board board,Board scratch,int[] targets,int[][] squares) {
+    //moves that need the king's safety checked are tried on the scratch board
+    long moves = 0;
+    int promotions = Math.max(1,this.promotionOptions.length());
+    int side = board.toMove ? 1 : -1;
+    for (int[] start : squares) {
+      if (board.boardstate[start[0]][start[1]].side != side) {
+        continue;
+      }
+      for (int target=0, count=Perft.findTargets(board,start,targets);target<count;target++) {
+        int[] end = squares[targets[target]];
+        if (!board.isPseudoLegal(start,end)) {
+          continue;
+        }
+        if (!board.keepsKingSafe(start,end)) {
+          scratch.copyFrom(board);
+          scratch.movePiece(start,end);
+          if (scratch.leftInCheck()) {
+            continue;
+          }
+        }
+        moves += board.isPromotion(start,end) ? promotions : 1;
+      }
+    }
+    return moves;
+  }
+
+  ArrayList<Board> getMoves(Board board) {
+    //every position reachable in one move, with promotions already made
+    //used to split the first moves between threads, perft itself reuses its boards
+    ArrayList<Board> boards = new ArrayList<>();
+    int[][] squares = Perft.squares(board);
+    int side = board.toMove ? 1 : -1;
+    for (int[] start : squares) {
+      if (board.boardstate[start[0]][start[1]].side != side) {
+        continue;
+      }
+      for (int[] end : squares) {
+        Board newBoard = board.getMove(start,end);
+        if (newBoard != null) {
+          if (newBoard.promotionAvailable && this.promotionOptions.length() > 0) {
+            String options = this.promotionOptions;
+            for (int m=0, length=options.length();m<length;m++) {
+              Board promoted = m == length-1 ? newBoard : new Board(newBoard);
+              promoted.promotePiece(options.charAt(m));
+              boards.add(promoted);
+            }
+          }
+          else {
+            boards.add(newBoard);
+          }
+        }
+      }
+    }
+    return boards;
+  }
+
+  public static void main(String[] args) {
+    //usage: Perft <depth> <fen> [pawnRow pawnSquares queenRookColumn kingRookColumn
+    //  promotionOptions friendlyFire] [-divide] [-hash <megabytes>]
+    if (args.length < 2) {
+      System.err.println("usage: Perft <depth> <fen> [pawnRow pawnSquares queenRookColumn " +
+          "kingRookColumn promotionOptions friendlyFire] [-divide] [-hash <megabytes>]");
+      System.exit(1);
+    }
+    int depth = Integer.parseInt(args[0]);
+    String fen = args[1];
+
+    //standard chess unless told otherwise
+    ArrayList<String> variant = new ArrayList<>();
+    boolean divide = false;
+    int hashSize = 0;
+    for (int i=2;i<args.length;i++) {
+      switch (args[i]) {
+        case "-divide":
+          divide = true;
+          break;
+        case "-hash":
+          i++;
+          hashSize = Integer.parseInt(args[i]);
+          break;
+        default:
+          variant.add(args[i]);
+      }
+    }
+    Board board = new Board(fen,2,2,1,8,false);
+    String promotionOptions = "qrbn";
+    if (variant.size() >= 6) {
+      board = new Board(fen,Integer.parseInt(variant.get(0)),Integer.parseInt(variant.get(1)),
+          Integer.parseInt(variant.get(2)),Integer.parseInt(variant.get(3)),
+          Boolean.parseBoolean(variant.get(5)));
+      promotionOptions = variant.get(4);
+    }
+    else if (board.width != 8) {
+      //the king's rook starts in the last column
+      board = new Board(fen,2,2,1,board.width,false);
+    }
+
+    Perft perft = new Perft(promotionOptions,hashSize > 0 ? new PerftTable(hashSize) : null);
+    long startTime = System.nanoTime();
+    long nodes = 0;
+    if (divide) {
+      for (Map.Entry<String,Long> entry : perft.divide(board,depth).entrySet()) {
+        System.out.println(entry.getKey() + ": " + entry.getValue());
+        nodes += entry.getValue();
+      }
+      System.out.println();
+    }
+    else {
+      nodes = perft.perft(board,depth);
+    }
+    long time = (System.nanoTime() - startTime) / 1000000;
+    System.out.println("Nodes: " + nodes);
+    System.out.println("Time: " + time + "ms");
+    System.out.println("NPS: " + (time > 0 ? nodes * 1000 / time : nodes * 1000));
+  }
+}
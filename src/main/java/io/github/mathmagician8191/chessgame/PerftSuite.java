@@ -0,0 +1,230 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+public class PerftSuite {
+  /*
+  Runs perft on a file of positions in parallel and reports any wrong counts
+  Each line has the FEN, the variant rules and the expected counts, separated by ;
+  fen;pawnRow;pawnSquares;queenRookColumn;kingRookColumn;promotionOptions;friendlyFire;D1 20;D2 400
+  Blank lines and lines starting with # are ignored
+  */
+
+  //below this depth a position is counted on one thread
+  static final int SPLIT_DEPTH = 4;
+
+  static class Position {
+    int line;
+    String fen;
+    Board board;
+    String promotionOptions;
+    TreeMap<Integer,Long> expected;
+
+    //results
+    long[] counts;
+    long nodes;
+    long time; //milliseconds
+    boolean passed;
+    boolean skipped; //every depth was above the maximum
+  }
+
+  static Position parse(String line,int number) {
+    String[] fields = line.split(";");
+    if (fields.length < 7) {
+      throw new IllegalArgumentException("line " + number + ": expected the FEN and 6 variant fields");
+    }
+    Position position = new Position();
+    position.line = number;
+    position.fen = fields[0].trim();
+    position.board = new Board(position.fen,Integer.parseInt(fields[1].trim()),
+        Integer.parseInt(fields[2].trim()),Integer.parseInt(fields[3].trim()),
+        Integer.parseInt(fields[4].trim()),Boolean.parseBoolean(fields[6].trim()));
+    position.promotionOptions = fields[5].trim();
+    position.expected = new TreeMap<>();
+    for (int i=7;i<fields.length;i++) {
+      String[] count = fields[i].trim().split(" +");
+      if (count.length != 2 || !count[0].startsWith("D")) {
+        throw new IllegalArgumentException("line " + number + ": bad count \"" + fields[i] + "\"");
+      }
+      position.expected.put(Integer.parseInt(count[0].substring(1)),Long.parseLong(count[1]));
+    }
+    return position;
+  }
+
+  static class CountTask extends RecursiveTask<Long> {
+    //counts one position, splitting the moves into separate tasks when deep enough
+    private static final long serialVersionUID = 1L;
+
+    final Perft perft;
+    final Board board;
+    final int depth;
+
+    CountTask(Perft perft,Board board,int depth) {
+      this.perft = perft;
+      this.board = board;
+      this.depth = depth;
+    }
+
+    @Override
+    protected Long compute() {
+      if (this.depth < SPLIT_DEPTH) {
+        return this.perft.perft(this.board,this.depth);
+      }
+      ArrayList<CountTask> tasks = new ArrayList<>();
+      for (Board child : this.perft.getMoves(this.board)) {
+        tasks.add(new CountTask(this.perft,child,this.depth-1));
+      }
+      ForkJoinTask.invokeAll(tasks);
+      long nodes = 0;
+      for (CountTask task : tasks) {
+        nodes += task.join();
+      }
+      return nodes;
+    }
+  }
+
+  static class PositionTask extends RecursiveTask<Position> {
+    private static final long serialVersionUID = 1L;
+
+    final Position position;
+    final PerftTable table;
+    final int maxDepth;
+
+    PositionTask(Position position,PerftTable table,int maxDepth) {
+      this.position = position;
+      this.table = table;
+      this.maxDepth = maxDepth;
+    }
+
+    @Override
+    protected Position compute() {
+      Position position = this.position;
+      Perft perft = new Perft(position.promotionOptions,this.table);
+      long startTime = System.nanoTime();
+      position.counts = new long[position.expected.size()];
+      position.passed = true;
+      position.skipped = true;
+      int i = 0;
+      for (Map.Entry<Integer,Long> entry : position.expected.entrySet()) {
+        int depth = entry.getKey();
+        if (depth > this.maxDepth) {
+          position.counts[i] = -1;
+        }
+        else {
+          position.skipped = false;
+          long count = new CountTask(perft,position.board,depth).compute();
+          position.counts[i] = count;
+          position.nodes += count;
+          if (count != entry.getValue()) {
+            position.passed = false;
+          }
+        }
+        i++;
+      }
+      position.time = (System.nanoTime() - startTime) / 1000000;
+      return position;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    //usage: PerftSuite <file> [-threads <n>] [-hash <megabytes>] [-maxdepth <n>]
+    if (args.length < 1) {
+      System.err.println("usage: PerftSuite <file> [-threads <n>] [-hash <megabytes>] [-maxdepth <n>]");
+      System.exit(1);
+    }
+    int threads = Runtime.getRuntime().availableProcessors();
+    int hashSize = 0;
+    int maxDepth = Integer.MAX_VALUE;
+    for (int i=1;i<args.length;i++) {
+      switch (args[i]) {
+        case "-threads":
+          threads = Integer.parseInt(args[++i]);
+          break;
+        case "-hash":
+          hashSize = Integer.parseInt(args[++i]);
+          break;
+        case "-maxdepth":
+          maxDepth = Integer.parseInt(args[++i]);
+          break;
+        default:
+          System.err.println("unknown option " + args[i]);
+          System.exit(1);
+      }
+    }
+
+    ArrayList<Position> positions = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(args[0]))) {
+      String line;
+      int number = 0;
+      while ((line = reader.readLine()) != null) {
+        number++;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        positions.add(PerftSuite.parse(line,number));
+      }
+    }
+
+    //the table is shared by every thread, it is safe without locks
+    PerftTable table = hashSize > 0 ? new PerftTable(hashSize) : null;
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    long startTime = System.nanoTime();
+    ArrayList<ForkJoinTask<Position>> tasks = new ArrayList<>();
+    for (Position position : positions) {
+      tasks.add(pool.submit(new PositionTask(position,table,maxDepth)));
+    }
+
+    //report in file order as the results come in
+    int failures = 0;
+    int skipped = 0;
+    long nodes = 0;
+    for (ForkJoinTask<Position> task : tasks) {
+      Position position = task.join();
+      nodes += position.nodes;
+      String result = (!position.passed ? "FAIL " : position.skipped ? "skip " : "ok   ") + "line " + position.line + " " +
+          position.time + "ms";
+      int i = 0;
+      for (Map.Entry<Integer,Long> entry : position.expected.entrySet()) {
+        long count = position.counts[i];
+        if (count == -1) {
+          result += " D" + entry.getKey() + " skipped";
+        }
+        else if (count == entry.getValue()) {
+          result += " D" + entry.getKey() + " " + count;
+        }
+        else {
+          result += " D" + entry.getKey() + " " + count + " (expected " + entry.getValue() + ")";
+        }
+        i++;
+      }
+      if (!position.passed) {
+        failures++;
+        result += " " + position.fen;
+      }
+      else if (position.skipped) {
+        skipped++;
+      }
+      System.out.println(result);
+    }
+    pool.shutdown();
+
+    long time = (System.nanoTime() - startTime) / 1000000;
+    System.out.println();
+    System.out.println("Positions: " + positions.size() + ", failed: " + failures + ", skipped: " + skipped);
+    System.out.println("Nodes: " + nodes);
+    System.out.println("Time: " + time + "ms");
+    System.out.println("NPS: " + (time > 0 ? nodes * 1000 / time : nodes * 1000));
+    if (failures > 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package io.github.mathmagician8191.chessgame;
+
+public class PerftTable {
+  /*
+  Hash table of perft results so transpositions are only counted once
+  Entries are stored with the key xored with the count so that threads can share
+  the table without locks, a torn write just looks like a miss
+  */
+
+  final long[] keys;
+  final long[] counts;
+  final int mask;
+
+  public PerftTable(int megabytes) {
+    //each entry is 16 bytes, use the largest power of 2 that fits
+    long entries = Math.max(1,((long) megabytes << 20) / 16);
+    int size = Integer.highestOneBit((int) Math.min(entries,1 << 30));
+    this.keys = new long[size];
+    this.counts = new long[size];
+    this.mask = size-1;
+  }
+
+  static long key(long hash,int depth) {
+    return hash ^ Board.mix(depth);
+  }
+
+  public long get(long hash,int depth) {
+    //returns -1 if the position isn't stored
+    long key = PerftTable.key(hash,depth);
+    int index = (int) key & this.mask;
+    long count = this.counts[index];
+    if ((this.keys[index] ^ count) == key) {
+      return count;
+    }
+    return -1;
+  }
+
+  public void put(long hash,int depth,long count) {
+    long key = PerftTable.key(hash,depth);
+    int index = (int) key & this.mask;
+    this.counts[index] = count;
+    this.keys[index] = key ^ count;
+  }
+}
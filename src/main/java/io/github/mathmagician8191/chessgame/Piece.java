@@ -7,6 +7,15 @@ public class Piece {
   
   static Piece square = new Piece();
   
+  //pieces never change so one of each letter can be shared by every board
+  static final Piece[] PIECES = new Piece[128];
+  static {
+    for (char letter='a';letter<='z';letter++) {
+      PIECES[letter] = new Piece(letter);
+      PIECES[Character.toUpperCase(letter)] = new Piece(Character.toUpperCase(letter));
+    }
+  }
+  
   public final boolean isPiece;
   public final int side; //white=1 black = -1
   public final char letter; //used to convert to FEN and to see legal moves
@@ -21,6 +30,14 @@ public class Piece {
     this.letter = ' ';
   }
   
+  public static Piece of(char letter) {
+    //a shared piece for a FEN letter, uppercase for white
+    if (letter < 128 && PIECES[letter] != null) {
+      return PIECES[letter];
+    }
+    return new Piece(letter);
+  }
+  
   @Override
   public boolean equals(Object other) {
     if (this==other) {
@@ -0,0 +1,235 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.util.ArrayList;
+
+public class PieceType {
+  /*
+  How a kind of piece moves, written in Betza's notation, and how the engine values it
+  Atoms are leapers: W (1,0), F (1,1), D (2,0), N (2,1), A (2,2), H (3,0), C (3,1), Z (3,2), G (3,3)
+  and K = WF, and each can jump in every direction. R = WW, B = FF and Q = RB are riders
+  A doubled atom rides, e.g. NN is the nightrider, and a number after an atom limits how far it rides,
+  e.g. R4 or W2. Modifiers that restrict moves or captures aren't supported
+  Pawns, kings castling and obstacles can't be written this way and are handled by the board
+  Definitions are compiled for each board size by MoveTables
+  */
+
+  //added to the value for the board size, see Engine
+  static final int NO_BONUS = 0;
+  static final int ROOK_BONUS = 1;
+  static final int BISHOP_BONUS = 2;
+
+  //what a piece counts as when looking for mating material, see Board.isSufficientMaterial
+  static final int NO_MATERIAL = 0; //kings and pieces that can't move
+  static final int MAJOR_MATERIAL = 1; //can mate a lone king with the help of its own king
+  static final int MATING_MATERIAL = 2; //pawns can promote and unknown pieces can go wherever
+  static final int MINOR_MATERIAL = 3; //needs other pieces to mate
+  static final int BOUND_MATERIAL = 4; //colour-bound, only reaches squares of one colour
+  static final int BARRIER_MATERIAL = 5;
+
+  //definitions by lowercase letter, replaced with a new array when a piece is defined
+  static volatile PieceType[] types = new PieceType[128];
+
+  //values for letters without a definition, which can go wherever
+  static final PieceType UNKNOWN = new PieceType(' ',"",110,NO_BONUS,10,3,2,10,1);
+
+  static {
+    //      letter Betza     value bonus         threat range room  roomValue advance
+    PieceType.add('m',"QN",   1200,ROOK_BONUS,   40,    3,    2,    25,       0);
+    PieceType.add('q',"Q",    870, ROOK_BONUS,   10,    5,    1,    20,       0);
+    PieceType.add('c',"RN",   870, ROOK_BONUS,   20,    3,    2,    20,       0);
+    PieceType.add('a',"BN",   800, BISHOP_BONUS, 20,    3,    2,    20,       0);
+    PieceType.add('h',"WFDA", 600, NO_BONUS,     30,    3,    2,    20,       0);
+    PieceType.add('r',"R",    470, ROOK_BONUS,   10,    2,    1,    5,        0);
+    PieceType.add('i',"NN",   470, BISHOP_BONUS, 0,     3,    2,    9,        0);
+    PieceType.add('b',"B",    300, BISHOP_BONUS, 0,     3,    1,    10,       0);
+    PieceType.add('z',"Z",    320, NO_BONUS,     0,     3,    3,    13,       0);
+    PieceType.add('n',"N",    320, NO_BONUS,     0,     3,    2,    18,       2);
+    PieceType.add('x',"K",    320, NO_BONUS,     10,    3,    1,    25,       0);
+    PieceType.add('w',"W",    200, NO_BONUS,     0,     3,    1,    25,       0);
+    PieceType.add('l',"C",    200, NO_BONUS,     0,     3,    3,    12,       0);
+    PieceType.add('f',"F",    150, NO_BONUS,     0,     3,    1,    25,       0);
+    PieceType.add('k',"K",    0,   NO_BONUS,     0,     3,    1,    5,        0);
+    //moved by the board
+    PieceType.add('o',"",     150, NO_BONUS,     0,     3,    0,    0,        0);
+    PieceType.add('p',"",     80,  NO_BONUS,     -5,    3,    1,    15,       12);
+  }
+
+  public final char letter;
+  public final String betza;
+
+  //{dx,dy} of each leap and {dx,dy,limit} of each ride, limit 0 for no limit
+  //only one direction is stored, the piece can move in all of them
+  final int[][] leaps;
+  final int[][] rides;
+
+  final int material;
+
+  //how the engine values the piece by default, see EvaluationWeights
+  final int value;
+  final int bonus;
+  final int kingThreat;
+  final int threatRange;
+  final int roomNeeded;
+  final int roomValue;
+  final int advanceBonus;
+
+  PieceType(char letter,String betza,int value,int bonus,int kingThreat,int threatRange,
+      int roomNeeded,int roomValue,int advanceBonus) {
+    this.letter = letter;
+    this.betza = betza;
+    this.value = value;
+    this.bonus = bonus;
+    this.kingThreat = kingThreat;
+    this.threatRange = threatRange;
+    this.roomNeeded = roomNeeded;
+    this.roomValue = roomValue;
+    this.advanceBonus = advanceBonus;
+
+    ArrayList<int[]> leaps = new ArrayList<>();
+    ArrayList<int[]> rides = new ArrayList<>();
+    PieceType.parse(betza,leaps,rides);
+    this.leaps = leaps.toArray(new int[leaps.size()][]);
+    this.rides = rides.toArray(new int[rides.size()][]);
+    this.material = PieceType.material(letter,this.leaps,this.rides);
+  }
+
+  static void add(char letter,String betza,int value,int bonus,int kingThreat,int threatRange,
+      int roomNeeded,int roomValue,int advanceBonus) {
+    PieceType.types[letter] = new PieceType(letter,betza,value,bonus,kingThreat,threatRange,roomNeeded,roomValue,
+        advanceBonus);
+  }
+
+  public static synchronized void define(char letter,String betza,int value) {
+    //adds a piece for a letter without one, the engine values it like an unknown piece apart from the value
+    //boards made before this still let the piece go wherever, and engines made before it value it as unknown
+    //meant to be called at startup, the definitions are copied and published whole so boards made
+    //at the same time on other threads see the old or the new ones
+    letter = Character.toLowerCase(letter);
+    if (letter < 'a' || letter > 'z') {
+      throw new IllegalArgumentException("pieces are letters from a to z");
+    }
+    PieceType[] types = PieceType.types.clone();
+    if (types[letter] != null) {
+      throw new IllegalArgumentException(letter + " is already defined as " + types[letter].betza);
+    }
+    types[letter] = new PieceType(letter,betza,value,NO_BONUS,UNKNOWN.kingThreat,UNKNOWN.threatRange,
+        UNKNOWN.roomNeeded,UNKNOWN.roomValue,UNKNOWN.advanceBonus);
+    PieceType.types = types;
+    MoveTables.TABLES.clear();
+    EvaluationWeights.defaults = null;
+  }
+
+  public static PieceType of(char letter) {
+    //the definition of a lowercase letter, UNKNOWN if there isn't one
+    PieceType type = letter < 128 ? PieceType.types[letter] : null;
+    return type == null ? UNKNOWN : type;
+  }
+
+  static int bit(char letter) {
+    //a letter's bit in a set of letters, 0 for letters outside a-z
+    return letter >= 'a' && letter <= 'z' ? 1 << (letter-'a') : 0;
+  }
+
+  static int material(char letter,int[][] leaps,int[][] rides) {
+    //pieces that have all a king's moves, or that ride straight or diagonally to the edge without
+    //being colour-bound, can drive a lone king to the edge
+    switch (letter) {
+      case 'k':
+        return NO_MATERIAL;
+      case 'p':
+      case ' ':
+        return MATING_MATERIAL;
+      case 'o':
+        return BARRIER_MATERIAL;
+    }
+    if (leaps.length == 0 && rides.length == 0) {
+      return NO_MATERIAL;
+    }
+    boolean colourBound = true;
+    boolean straight = false;
+    boolean diagonal = false;
+    boolean longRide = false;
+    for (int[][] moves : new int[][][] {leaps,rides}) {
+      for (int[] move : moves) {
+        colourBound &= (move[0]+move[1])%2 == 0;
+        straight |= move[0] == 1 && move[1] == 0;
+        diagonal |= move[0] == 1 && move[1] == 1;
+        longRide |= move.length == 3 && move[2] == 0 && (move[1] == 0 || move[0] == move[1]);
+      }
+    }
+    if (colourBound) {
+      return BOUND_MATERIAL;
+    }
+    return (straight && diagonal) || longRide ? MAJOR_MATERIAL : MINOR_MATERIAL;
+  }
+
+  static void parse(String betza,ArrayList<int[]> leaps,ArrayList<int[]> rides) {
+    int i = 0;
+    while (i < betza.length()) {
+      char atom = betza.charAt(i);
+      i++;
+      //riders unless limited
+      int limit = atom == 'R' || atom == 'B' || atom == 'Q' ? 0 : 1;
+      if (i < betza.length() && betza.charAt(i) == atom) {
+        limit = 0;
+        i++;
+      }
+      else if (i < betza.length() && Character.isDigit(betza.charAt(i))) {
+        int end = i;
+        while (end < betza.length() && Character.isDigit(betza.charAt(end))) {
+          end++;
+        }
+        limit = Board.parseNumber(betza,i,end);
+        i = end;
+      }
+
+      switch (atom) {
+        case 'K':
+        case 'Q':
+          PieceType.addMove(1,0,limit,leaps,rides);
+          PieceType.addMove(1,1,limit,leaps,rides);
+          break;
+        case 'R':
+        case 'W':
+          PieceType.addMove(1,0,limit,leaps,rides);
+          break;
+        case 'B':
+        case 'F':
+          PieceType.addMove(1,1,limit,leaps,rides);
+          break;
+        case 'D':
+          PieceType.addMove(2,0,limit,leaps,rides);
+          break;
+        case 'N':
+          PieceType.addMove(2,1,limit,leaps,rides);
+          break;
+        case 'A':
+          PieceType.addMove(2,2,limit,leaps,rides);
+          break;
+        case 'H':
+          PieceType.addMove(3,0,limit,leaps,rides);
+          break;
+        case 'C':
+          PieceType.addMove(3,1,limit,leaps,rides);
+          break;
+        case 'Z':
+          PieceType.addMove(3,2,limit,leaps,rides);
+          break;
+        case 'G':
+          PieceType.addMove(3,3,limit,leaps,rides);
+          break;
+        default:
+          throw new IllegalArgumentException("unsupported Betza atom " + atom + " in " + betza);
+      }
+    }
+  }
+
+  static void addMove(int dx,int dy,int limit,ArrayList<int[]> leaps,ArrayList<int[]> rides) {
+    if (limit == 1) {
+      leaps.add(new int[] {dx,dy});
+    }
+    else {
+      rides.add(new int[] {dx,dy,limit});
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package io.github.mathmagician8191.chessgame;
+
+public class Profiling {
+  /*
+  Hooks for profilers such as Java Flight Recorder
+  The library targets Java 7 so it can't define JFR events itself, applications
+  register a listener that commits their own events from these callbacks
+  Nothing is measured while no listener is registered
+  */
+
+  static volatile Listener listener;
+
+  public static void setListener(Listener listener) {
+    Profiling.listener = listener;
+  }
+
+  public static Listener getListener() {
+    return Profiling.listener;
+  }
+
+  public interface Listener {
+    //a search for a move finished, called on the searching thread
+    void moveSearched(Board position,int depth,long nodes,long nanos);
+
+    //the game result was checked, endCause is null if the game is still going
+    void resultChecked(Board position,String endCause,long anyMovesNanos,long nanos);
+
+    //a board was created from a FEN
+    void fenParsed(Board position,int length,long nanos);
+  }
+}
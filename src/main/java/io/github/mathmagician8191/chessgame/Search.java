@@ -0,0 +1,318 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class Search implements Future<Engine>, Runnable {
+  /*
+  Handle to a search running on its own thread
+  Searches with iterative deepening so it can be stopped at any time and still
+  give the best move found by the last completed iteration
+  Positions in the root's opening book are played from the book without searching
+  */
+
+  //depth used when pondering so the search keeps going until told otherwise
+  public static final int MAX_DEPTH = 100;
+
+  //position being searched
+  final Engine root;
+
+  //limits, 0 means no limit for nodes and time
+  int depth;
+  int depthReached;
+  long nodeLimit;
+  long timeLimit; //milliseconds
+
+  //whether the search starts a new generation in its table, off when the table's owner does it
+  boolean agesTable = true;
+
+  SearchListener listener;
+  SearchStatistics statistics;
+
+  //search status
+  volatile boolean stopped;
+  volatile boolean pondering;
+  volatile boolean cancelled;
+  long nodes;
+  long startTime;
+  long deadline;
+
+  //result of the search
+  Engine result;
+  ArrayList<String> pv;
+  int score;
+  final CountDownLatch done;
+
+  public Search(Engine root,int depth,SearchListener listener) {
+    this.root = root;
+    this.depth = depth;
+    this.listener = listener;
+    //collect statistics in the engine's counters if it has any, the engine isn't changed
+    this.statistics = root.statistics != null ? root.statistics : new SearchStatistics(false);
+    this.pv = new ArrayList<>();
+    this.done = new CountDownLatch(1);
+  }
+
+  public void setNodeLimit(long nodes) {
+    this.nodeLimit = nodes;
+  }
+
+  public void setTimeLimit(long millis) {
+    this.timeLimit = millis;
+  }
+
+  public void setPondering(boolean pondering) {
+    this.pondering = pondering;
+  }
+
+  public void start() {
+    Thread thread = new Thread(this,"search");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public void stop() {
+    synchronized (this) {
+      this.stopped = true;
+      this.notifyAll();
+    }
+  }
+
+  public void ponderhit() {
+    //the opponent played the expected move, the limits now apply
+    synchronized (this) {
+      if (this.timeLimit > 0) {
+        this.deadline = System.nanoTime() + this.timeLimit * 1000000;
+      }
+      this.pondering = false;
+      this.notifyAll();
+    }
+  }
+
+  boolean continueSearch() {
+    //called at every node, returns false once the search has to end
+    this.nodes++;
+    if (this.stopped) {
+      return false;
+    }
+    if (!this.pondering) {
+      if (this.nodeLimit > 0 && this.nodes >= this.nodeLimit) {
+        this.stopped = true;
+        return false;
+      }
+      //only look at the clock occasionally
+      if (this.deadline != 0 && (this.nodes & 1023) == 0 && System.nanoTime() >= this.deadline) {
+        this.stopped = true;
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void run() {
+    this.startTime = System.nanoTime();
+    if (!this.pondering && this.timeLimit > 0) {
+      this.deadline = this.startTime + this.timeLimit * 1000000;
+    }
+    this.statistics.newSearch();
+    if (this.root.table != null && this.agesTable) {
+      this.root.table.newSearch();
+    }
+    try {
+      Engine bookMove = this.root.book != null ? this.root.bookMove() : null;
+      if (bookMove != null) {
+        this.result = bookMove;
+        this.pv.add(Board.moveToString(this.root.position,bookMove.position));
+        this.waitForPonderhit();
+        return;
+      }
+
+      ArrayList<Engine> games = this.root.getMoves();
+      if (games.isEmpty()) {
+        //no moves are possible
+        this.result = this.root;
+        return;
+      }
+
+      //randomly orders the list to make it randomly decide between equal moves
+      Collections.shuffle(games);
+      for (Engine game : games) {
+        game.search = this;
+      }
+
+      this.result = games.get(0);
+      for (int i=1;i<=MAX_DEPTH;i++) {
+        if (i > this.depth && !this.pondering) {
+          break;
+        }
+
+        long iterationStart = this.nodes;
+        int alpha = Integer.MIN_VALUE+1;
+        Engine best = null;
+        for (Engine newGame : games) {
+          int score = -newGame.evaluate(i-1, Integer.MIN_VALUE+1, -alpha);
+          if (this.stopped) {
+            break;
+          }
+          if (score > alpha || best == null) {
+            alpha = score;
+            best = newGame;
+          }
+        }
+        if (this.stopped) {
+          //the iteration is incomplete so it can't be trusted
+          break;
+        }
+
+        this.statistics.iterationComplete(this.nodes - iterationStart);
+        this.depthReached = i;
+        this.result = best;
+        this.score = alpha;
+        this.pv = this.principalVariation();
+
+        //search the best move first next iteration
+        games.remove(best);
+        games.add(0,best);
+
+        if (this.listener != null) {
+          long time = (System.nanoTime() - this.startTime) / 1000000;
+          long nps = time > 0 ? this.nodes * 1000 / time : this.nodes * 1000;
+          this.listener.iterationComplete(new SearchInfo(i,alpha,this.nodes,nps,time,this.pv));
+        }
+
+        if (games.size() == 1 && !this.pondering) {
+          //only move, no need to keep searching
+          break;
+        }
+      }
+
+      this.waitForPonderhit();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      //the result can be used to keep playing so detach it from this search
+      if (this.result != null && this.result != this.root) {
+        this.result.search = null;
+      }
+      Profiling.Listener listener = Profiling.listener;
+      if (listener != null) {
+        listener.moveSearched(this.root.position,this.depthReached,this.nodes,
+            System.nanoTime()-this.startTime);
+      }
+      this.done.countDown();
+    }
+  }
+
+  synchronized void waitForPonderhit() throws InterruptedException {
+    //don't return early while pondering, the opponent hasn't moved yet
+    while (this.pondering && !this.stopped) {
+      this.wait();
+    }
+  }
+
+  public static int mateIn(Board root,int score) {
+    //moves until mate from a score, negative if the side to move is getting mated, 0 if no mate
+    //the engine scores mates from the move number they happen on
+    if (score > Integer.MAX_VALUE - 1000000) {
+      int moveNumber = Integer.MAX_VALUE - score;
+      return Math.max(1,moveNumber - root.moves + (root.toMove ? 1 : 0));
+    }
+    if (score < Integer.MIN_VALUE + 1000000) {
+      int moveNumber = score - Integer.MIN_VALUE - 1;
+      return -Math.max(1,moveNumber - root.moves);
+    }
+    return 0;
+  }
+
+  ArrayList<String> principalVariation() {
+    //follows the best replies found by the last iteration
+    ArrayList<String> line = new ArrayList<>();
+    Board previous = this.root.position;
+    Engine game = this.result;
+    while (game != null) {
+      line.add(Board.moveToString(previous,game.position));
+      previous = game.position;
+      game = game.bestChild;
+    }
+    return line;
+  }
+
+  public long getNodes() {
+    return this.nodes;
+  }
+
+  public SearchStatistics getStatistics() {
+    //only safe to read once the search is done
+    return this.statistics;
+  }
+
+  public int getDepthReached() {
+    return this.depthReached;
+  }
+
+  public int getScore() {
+    return this.score;
+  }
+
+  public ArrayList<String> getPv() {
+    return this.pv;
+  }
+
+  public Engine getPonderPosition() {
+    //the position after the expected reply to the best move, null if none is known
+    if (this.result == null || this.result.bestChild == null) {
+      return null;
+    }
+    Engine ponderPosition = this.result.bestChild;
+    ponderPosition.search = null;
+    return ponderPosition;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (this.isDone()) {
+      return false;
+    }
+    this.cancelled = true;
+    this.stop();
+    return true;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  @Override
+  public boolean isDone() {
+    return this.done.getCount() == 0;
+  }
+
+  @Override
+  public Engine get() throws InterruptedException {
+    this.done.await();
+    if (this.cancelled) {
+      throw new CancellationException();
+    }
+    return this.result;
+  }
+
+  @Override
+  public Engine get(long timeout,TimeUnit unit) throws InterruptedException, TimeoutException {
+    if (!this.done.await(timeout,unit)) {
+      throw new TimeoutException();
+    }
+    if (this.cancelled) {
+      throw new CancellationException();
+    }
+    return this.result;
+  }
+}
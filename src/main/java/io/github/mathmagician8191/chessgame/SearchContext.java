@@ -0,0 +1,437 @@
+package io.github.mathmagician8191.chessgame;
+
+class SearchContext {
+  /*
+  Everything a search needs below its root, so the tree is searched without a Game for every node
+  Moves are made on one scratch board per ply, copied from the board above
+  Repetitions and the 50-move rule are found from a stack of position keys that starts with
+  the root game's history, the game is only looked at to set the stack up
+  Used by one thread at a time
+  */
+
+  //result of a position that isn't over
+  static final int NO_RESULT = 2;
+
+  final Engine root;
+  final String promotionOptions;
+  //counters of the search running this, or the root's own when there is no search
+  final SearchStatistics statistics;
+
+  //board and result for each ply, ply 0 is the root
+  final Board[] boards;
+  final int[] results;
+
+  //keys of the positions in the root game then one for each ply
+  final long[] keys;
+  final int historyLength;
+
+  //best line found from each ply, moves encoded by move()
+  final long[][] pv;
+  final int[] pvLength;
+
+  //square arrays shared by every move so moves don't allocate them, numbered column*height+row
+  final int[][] squares;
+
+  //squares obstacles can move to from each ply, found by findTargets
+  final int[][] targets;
+
+  //whether quiescence keeps the line of captures that leads to its score, used by Tuner
+  boolean quiescencePv;
+
+  //why the last position checked is over, null if it isn't
+  String endCause;
+  long anyMovesTime;
+
+  SearchContext(Engine root,int maxPly) {
+    this.root = root;
+    this.promotionOptions = root.promotionOptions;
+    this.statistics = root.search != null ? root.search.statistics : root.statistics;
+    Board board = root.position;
+
+    this.boards = new Board[maxPly+1];
+    this.boards[0] = board;
+    for (int i=1;i<=maxPly;i++) {
+      this.boards[i] = new Board(board);
+    }
+    this.results = new int[maxPly+1];
+    this.results[0] = board.gameOver ? root.gameResult : NO_RESULT;
+
+    //the history normally ends with the root, it is added if it doesn't
+    long[] history = History.toArray(root.history);
+    long key = board.hash();
+    int length = history.length;
+    if (length > 0 && history[length-1] == key) {
+      length--;
+    }
+    this.keys = new long[length+maxPly+1];
+    System.arraycopy(history,0,this.keys,0,length);
+    this.keys[length] = key;
+    this.historyLength = length+1;
+
+    this.pv = new long[maxPly+1][maxPly+1];
+    this.pvLength = new int[maxPly+1];
+
+    this.squares = new int[board.width*board.height][];
+    for (int i=0;i<board.width;i++) {
+      for (int j=0;j<board.height;j++) {
+        this.squares[i*board.height+j] = new int[] {i,j};
+      }
+    }
+    this.targets = new int[maxPly+1][board.width*board.height];
+  }
+
+  static long move(int startSquare,int endSquare,char promotion) {
+    //packs a move, squares are numbered column*height+row
+    return ((long) startSquare << 40) | ((long) endSquare << 16) | promotion;
+  }
+
+  long key(int ply) {
+    return this.keys[this.historyLength-1+ply];
+  }
+
+  int search(int ply,int depth,int alpha,int beta) {
+    //searches and evaluates positions, gives value in centipawns
+    Board board = this.boards[ply];
+    Engine root = this.root;
+    this.pvLength[ply] = 0;
+
+    if (depth == 0) {
+      //search has ended
+      return this.quiescence(ply,alpha,beta,root.quiescenceDepth);
+    }
+
+    //stop if the search has been cancelled
+    if (root.search != null && !root.search.continueSearch()) {
+      return alpha;
+    }
+
+    SearchStatistics statistics = this.statistics;
+    if (statistics != null) {
+      statistics.nodes++;
+    }
+
+    //keep searching
+    if (this.results[ply] != NO_RESULT) {
+      return Engine.gameScore(board,this.results[ply]);
+    }
+    //endings in the tablebases have an exact score
+    if (root.tablebases != null) {
+      int score = root.tablebases.probe(board);
+      if (score != Tablebases.NONE) {
+        if (statistics != null) {
+          statistics.tablebaseHits++;
+        }
+        return score;
+      }
+    }
+    //look for a stored result
+    long hash = 0;
+    int originalAlpha = alpha;
+    if (root.table != null) {
+      hash = this.key(ply);
+      long entry = root.table.probe(hash);
+      if (statistics != null) {
+        statistics.ttProbes++;
+        if (entry != TranspositionTable.NONE) {
+          statistics.ttHits++;
+        }
+      }
+      if (entry != TranspositionTable.NONE && TranspositionTable.depth(entry) >= depth) {
+        int score = TranspositionTable.fromTable(TranspositionTable.score(entry),board.moves);
+        int bound = TranspositionTable.bound(entry);
+        if (score >= beta && bound != TranspositionTable.UPPER) {
+          return beta;
+        }
+        if (score <= alpha && bound != TranspositionTable.LOWER) {
+          return alpha;
+        }
+        if (bound == TranspositionTable.EXACT) {
+          return score;
+        }
+      }
+    }
+
+    //iterate over all possible moves, in the same order as Engine.getMoves apart from obstacles
+    //obstacles are searched last as their moves are rarely the best, and only to empty squares
+    boolean timed = statistics != null && statistics.sampleMoves();
+    Board child = this.boards[ply+1];
+    int side = board.toMove ? 1 : -1;
+    String options = this.promotionOptions;
+    boolean firstMove = true;
+    int passes = board.count(board.toMove ? 'O' : 'o') > 0 ? 2 : 1;
+    for (int pass=0;pass<passes;pass++) {
+      int[] targets = pass == 0 ? null : this.targets[ply];
+      int targetCount = pass == 0 ? board.width*board.height : this.findTargets(ply);
+      for (int i=0;i<board.width;i++) {
+        for (int j=0;j<board.height;j++) {
+          Piece piece = board.boardstate[i][j];
+          if (!piece.isPiece || piece.side != side || (piece.letter == 'o') != (pass == 1)) {
+            continue;
+          }
+          int startSquare = i*board.height+j;
+          for (int target=0;target<targetCount;target++) {
+            int endSquare = pass == 0 ? target : targets[target];
+            if (!this.makeMove(ply,startSquare,endSquare,timed)) {
+              continue;
+            }
+            int promotions = child.promotionAvailable ? options.length() : 0;
+            for (int m=0;m==0 || m<promotions;m++) {
+              char promotion = 0;
+              if (promotions > 0) {
+                if (m > 0) {
+                  //each option needs the move made again
+                  this.makeMove(ply,startSquare,endSquare,false);
+                }
+                promotion = options.charAt(m);
+                child.promotePiece(promotion);
+              }
+              this.checkResult(ply+1,timed);
+
+              int score = -this.search(ply+1,depth-1,-beta,-alpha);
+              if (score >= beta) {
+                if (statistics != null) {
+                  statistics.betaCutoff(firstMove);
+                }
+                this.storeResult(ply,hash,depth,TranspositionTable.LOWER,beta);
+                return beta;
+              }
+              firstMove = false;
+              if (score > alpha) {
+                alpha = score;
+                this.updatePv(ply,SearchContext.move(startSquare,endSquare,promotion));
+              }
+            }
+          }
+        }
+      }
+    }
+
+    this.storeResult(ply,hash,depth,alpha > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER,
+        alpha);
+    return alpha;
+  }
+
+  int findTargets(int ply) {
+    //lists the empty squares for the obstacles at a ply and gives how many there are
+    //with an obstacle range only squares that close to a king are listed, unless the side to move is in check
+    Board board = this.boards[ply];
+    int[] targets = this.targets[ply];
+    int range = board.inCheck ? 0 : this.root.obstacleRange;
+    int count = 0;
+    for (int i=0;i<board.width;i++) {
+      for (int j=0;j<board.height;j++) {
+        if (board.boardstate[i][j].isPiece) {
+          continue;
+        }
+        if (range > 0 &&
+            Math.max(Math.abs(i-board.whiteKingLocation[0]),Math.abs(j-board.whiteKingLocation[1])) > range &&
+            Math.max(Math.abs(i-board.blackKingLocation[0]),Math.abs(j-board.blackKingLocation[1])) > range) {
+          continue;
+        }
+        targets[count] = i*board.height+j;
+        count++;
+      }
+    }
+    return count;
+  }
+
+  void storeResult(int ply,long hash,int depth,int bound,int score) {
+    //results from a search that was stopped aren't reliable
+    Search search = this.root.search;
+    if (this.root.table != null && (search == null || !search.stopped)) {
+      this.root.table.store(hash,depth,bound,TranspositionTable.toTable(score,this.boards[ply].moves));
+    }
+  }
+
+  void updatePv(int ply,long move) {
+    //the move followed by the best line found after it
+    long[] line = this.pv[ply];
+    line[0] = move;
+    int length = this.pvLength[ply+1];
+    System.arraycopy(this.pv[ply+1],0,line,1,length);
+    this.pvLength[ply] = length+1;
+  }
+
+  int quiescence(int ply,int alpha,int beta,int depth) {
+    //tests captures from a position so that the program misses less tactical combinations
+    Board board = this.boards[ply];
+    Engine root = this.root;
+    this.pvLength[ply] = 0;
+
+    //stop if the search has been cancelled
+    if (root.search != null && !root.search.continueSearch()) {
+      return alpha;
+    }
+
+    //get the idea of what the position is
+    int result;
+    SearchStatistics statistics = this.statistics;
+    if (statistics != null) {
+      statistics.quiescenceNodes++;
+      if (statistics.sampleEvaluation()) {
+        long startTime = System.nanoTime();
+        result = root.evaluate(board,this.results[ply]);
+        statistics.evaluationTime += System.nanoTime() - startTime;
+      }
+      else {
+        result = root.evaluate(board,this.results[ply]);
+      }
+    }
+    else {
+      result = root.evaluate(board,this.results[ply]);
+    }
+
+    //if too good, other player won't let it happen
+    if (result >= beta) {
+      return beta;
+    }
+
+    //if not too bad, remember this as best achievable
+    if (alpha < result) {
+      alpha = result;
+    }
+
+    //if search over, stop
+    if (depth==0) {
+      return alpha;
+    }
+
+    //consider captures only as others are assumed tactically insignificant
+    //obstacles never capture, so they are skipped
+    Board child = this.boards[ply+1];
+    int side = board.toMove ? 1 : -1;
+    String options = this.promotionOptions;
+    for (int i=0;i<board.width;i++) {
+      for (int j=0;j<board.height;j++) {
+        Piece piece = board.boardstate[i][j];
+        if (piece.isPiece && piece.side == side && piece.letter != 'o') {
+          int startSquare = i*board.height+j;
+          for (int k=0;k<board.width;k++) {
+            for (int l=0;l<board.height;l++) {
+              if (!board.boardstate[k][l].isPiece) {
+                continue;
+              }
+              int endSquare = k*board.height+l;
+              if (!this.makeMove(ply,startSquare,endSquare,false)) {
+                continue;
+              }
+              int promotions = child.promotionAvailable ? options.length() : 0;
+              for (int m=0;m==0 || m<promotions;m++) {
+                char promotion = 0;
+                if (promotions > 0) {
+                  if (m > 0) {
+                    this.makeMove(ply,startSquare,endSquare,false);
+                  }
+                  promotion = options.charAt(m);
+                  child.promotePiece(promotion);
+                }
+                this.checkResult(ply+1,false);
+
+                int evaluation = -this.quiescence(ply+1,-beta,-alpha,depth-1);
+                if (evaluation >= beta) {
+                  return beta;
+                }
+                if (evaluation > alpha) {
+                  alpha = evaluation;
+                  if (this.quiescencePv) {
+                    this.updatePv(ply,SearchContext.move(startSquare,endSquare,promotion));
+                  }
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+
+    return alpha;
+  }
+
+  boolean makeMove(int ply,int startSquare,int endSquare,boolean timed) {
+    //makes a move on the board for the next ply, false if it isn't legal
+    Board board = this.boards[ply];
+    int[] start = this.squares[startSquare];
+    int[] end = this.squares[endSquare];
+    long startTime = timed ? System.nanoTime() : 0;
+    boolean legal = false;
+    if (board.isPseudoLegal(start,end)) {
+      Board child = this.boards[ply+1];
+      child.copyFrom(board);
+      child.movePiece(start,end);
+      legal = board.keepsKingSafe(start,end) || !child.leftInCheck();
+    }
+    if (timed) {
+      this.statistics.legalityTime += System.nanoTime() - startTime;
+    }
+    return legal;
+  }
+
+  void checkResult(int ply,boolean timed) {
+    //pushes the key of the position and checks if the game is over, like Game.checkResult
+    long startTime = timed ? System.nanoTime() : 0;
+    Profiling.Listener listener = Profiling.listener;
+    if (listener == null) {
+      this.results[ply] = this.findResult(ply,false);
+    }
+    else {
+      long listenerStart = System.nanoTime();
+      this.results[ply] = this.findResult(ply,true);
+      listener.resultChecked(this.boards[ply],this.endCause,this.anyMovesTime,
+          System.nanoTime()-listenerStart);
+    }
+    if (timed) {
+      this.statistics.moveGenerationTime += System.nanoTime() - startTime;
+    }
+  }
+
+  int findResult(int ply,boolean timed) {
+    Board board = this.boards[ply];
+    int top = this.historyLength-1+ply;
+    long key = board.hash();
+    this.keys[top] = key;
+    this.endCause = null;
+    this.anyMovesTime = 0;
+
+    //50-move rule
+    if (board.halfmoveClock>100) {
+      board.gameOver = true;
+      this.endCause = "Draw by 50-move rule";
+      return 0;
+    }
+
+    //3-fold repitition, only positions since the last capture or pawn move can be the same
+    int repeats = 0;
+    for (int i=top-1, end=Math.max(0,top-board.halfmoveClock);i>=end;i--) {
+      if (this.keys[i] == key) {
+        repeats++;
+        if (repeats == 2) {
+          board.gameOver = true;
+          this.endCause = "Draw by 3-fold repitition";
+          return 0;
+        }
+      }
+    }
+
+    //checkmate/stalemate
+    long anyMovesStart = timed ? System.nanoTime() : 0;
+    boolean anyMoves = board.anyMoves();
+    this.anyMovesTime = timed ? System.nanoTime() - anyMovesStart : 0;
+    if (!anyMoves) {
+      board.gameOver = true;
+      if (board.inCheck) {
+        this.endCause = board.toMove ? "Black wins by Checkmate" : "White wins by Checkmate";
+        return board.toMove ? -1 : 1;
+      }
+      this.endCause = "Draw by Stalemate";
+      return 0;
+    }
+
+    //insufficient material
+    if (!board.isSufficientMaterial()) {
+      board.gameOver = true;
+      this.endCause = "Draw by insufficient material";
+      return 0;
+    }
+    return NO_RESULT;
+  }
+}
@@ -0,0 +1,37 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.util.List;
+
+public class SearchInfo {
+  /*
+  Information about a completed iteration of a search
+  */
+
+  public final int depth;
+  public final int score; //centipawns for the side to move
+  public final long nodes;
+  public final long nps; //nodes per second
+  public final long time; //milliseconds since the search started
+
+  //principal variation in coordinate notation, starting with the best move
+  public final List<String> pv;
+
+  public SearchInfo(int depth,int score,long nodes,long nps,long time,List<String> pv) {
+    this.depth = depth;
+    this.score = score;
+    this.nodes = nodes;
+    this.nps = nps;
+    this.time = time;
+    this.pv = pv;
+  }
+
+  @Override
+  public String toString() {
+    String result = "depth " + depth + " score " + score + " nodes " + nodes + " nps " + nps +
+        " time " + time + " pv";
+    for (String move : this.pv) {
+      result += " " + move;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,11 @@
+package io.github.mathmagician8191.chessgame;
+
+public interface SearchListener {
+  /*
+  Receives progress from a running search
+  Called on the search thread so it should return quickly
+  */
+
+  //called each time an iteration of the search completes
+  void iterationComplete(SearchInfo info);
+}
@@ -0,0 +1,144 @@
+package io.github.mathmagician8191.chessgame;
+
+public class SearchStatistics {
+  /*
+  Counters describing the work done by searches
+  Each search thread should keep its own counters, they are merged at the end
+  Timers are only sampled on some calls so they are cheap enough to leave on
+  */
+
+  //1 in SAMPLE_RATE calls are timed, must be a power of 2
+  static final int SAMPLE_RATE = 16;
+
+  //node counts
+  public long nodes;
+  public long quiescenceNodes;
+
+  //beta cutoffs in the main search and how many were caused by the first move searched
+  public long betaCutoffs;
+  public long firstMoveCutoffs;
+
+  //transposition table usage
+  public long ttProbes;
+  public long ttHits;
+
+  //positions scored by the tablebases
+  public long tablebaseHits;
+
+  //sum of the ratios between the node counts of consecutive iterations
+  double branchingTotal;
+  int branchingSamples;
+  long lastIterationNodes;
+
+  //sampled timers in nanoseconds, each kind of call is counted separately so
+  //1 in SAMPLE_RATE of each is timed whatever order they come in
+  public final boolean timing;
+  long moveCalls;
+  long evaluationCalls;
+  long moveGenerationTime;
+  long legalityTime;
+  long evaluationTime;
+
+  public SearchStatistics(boolean timing) {
+    this.timing = timing;
+  }
+
+  boolean sampleMoves() {
+    //whether the next move generation and legality checks should be timed
+    if (!this.timing) {
+      return false;
+    }
+    this.moveCalls++;
+    return (this.moveCalls & (SAMPLE_RATE-1)) == 0;
+  }
+
+  boolean sampleEvaluation() {
+    //whether the next evaluation should be timed
+    if (!this.timing) {
+      return false;
+    }
+    this.evaluationCalls++;
+    return (this.evaluationCalls & (SAMPLE_RATE-1)) == 0;
+  }
+
+  void betaCutoff(boolean firstMove) {
+    this.betaCutoffs++;
+    if (firstMove) {
+      this.firstMoveCutoffs++;
+    }
+  }
+
+  void iterationComplete(long iterationNodes) {
+    //called by the search with the nodes used by each iteration
+    if (this.lastIterationNodes > 0) {
+      this.branchingTotal += (double) iterationNodes / this.lastIterationNodes;
+      this.branchingSamples++;
+    }
+    this.lastIterationNodes = iterationNodes;
+  }
+
+  void newSearch() {
+    //iterations of different searches shouldn't be compared
+    this.lastIterationNodes = 0;
+  }
+
+  public synchronized void merge(SearchStatistics other) {
+    //adds the counters from another thread
+    synchronized (other) {
+      this.nodes += other.nodes;
+      this.quiescenceNodes += other.quiescenceNodes;
+      this.betaCutoffs += other.betaCutoffs;
+      this.firstMoveCutoffs += other.firstMoveCutoffs;
+      this.ttProbes += other.ttProbes;
+      this.ttHits += other.ttHits;
+      this.tablebaseHits += other.tablebaseHits;
+      this.branchingTotal += other.branchingTotal;
+      this.branchingSamples += other.branchingSamples;
+      this.moveGenerationTime += other.moveGenerationTime;
+      this.legalityTime += other.legalityTime;
+      this.evaluationTime += other.evaluationTime;
+    }
+  }
+
+  public long totalNodes() {
+    return this.nodes + this.quiescenceNodes;
+  }
+
+  public double firstMoveCutoffRate() {
+    return this.betaCutoffs == 0 ? 0 : (double) this.firstMoveCutoffs / this.betaCutoffs;
+  }
+
+  public double ttHitRate() {
+    return this.ttProbes == 0 ? 0 : (double) this.ttHits / this.ttProbes;
+  }
+
+  public double effectiveBranchingFactor() {
+    return this.branchingSamples == 0 ? 0 : this.branchingTotal / this.branchingSamples;
+  }
+
+  //estimated times in nanoseconds, scaled up from the samples
+  public long moveGenerationTime() {
+    return this.moveGenerationTime * SAMPLE_RATE;
+  }
+
+  public long legalityTime() {
+    return this.legalityTime * SAMPLE_RATE;
+  }
+
+  public long evaluationTime() {
+    return this.evaluationTime * SAMPLE_RATE;
+  }
+
+  @Override
+  public String toString() {
+    String result = "nodes " + this.nodes + " qnodes " + this.quiescenceNodes +
+        " cutoffs " + this.betaCutoffs + String.format(" firstmove %.3f",this.firstMoveCutoffRate()) +
+        String.format(" tthits %.3f",this.ttHitRate()) + " tbhits " + this.tablebaseHits +
+        String.format(" ebf %.2f",this.effectiveBranchingFactor());
+    if (this.timing) {
+      result += " movegen " + this.moveGenerationTime()/1000000 + "ms legality " +
+          this.legalityTime()/1000000 + "ms eval " + this.evaluationTime()/1000000 + "ms";
+    }
+    return result;
+  }
+}
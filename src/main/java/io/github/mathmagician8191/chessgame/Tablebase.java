@@ -0,0 +1,236 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class Tablebase {
+  /*
+  Results of every position of one set of pieces on one board size, without pawns or castling
+  The file is a header followed by one byte per position:
+    header: magic (int), version (int), width, height (shorts), friendly fire, piece count (bytes),
+            the pieces as FEN letters, white king first, then the other white pieces, black king, other black pieces
+    value:  0 for a draw, n > 0 when the side to move mates in n moves,
+            -n when the side to move is mated after n-1 moves (-1 is checkmate), ILLEGAL if the position can't happen
+  The position index is the side to move (0 for white) plus twice the squares of the pieces in base
+  width*height, with the first piece the least significant. Squares are numbered column*height+row
+  The 50-move rule and repetitions are ignored
+  */
+
+  public static final int MAGIC = 0x43425442;
+  public static final int VERSION = 1;
+  public static final byte ILLEGAL = Byte.MIN_VALUE;
+
+  //pieces that are never in a table
+  static final String EXCLUDED = "p";
+
+  public final int width;
+  public final int height;
+  public final boolean friendlyFire;
+  //FEN letters in index order
+  public final char[] pieces;
+  final int whitePieces;
+
+  final ByteBuffer data;
+  final int offset;
+  public final int size;
+
+  Tablebase(int width,int height,boolean friendlyFire,char[] pieces,ByteBuffer data,int offset) {
+    this.width = width;
+    this.height = height;
+    this.friendlyFire = friendlyFire;
+    this.pieces = pieces;
+    int whitePieces = 0;
+    for (char piece : pieces) {
+      if (Character.isUpperCase(piece)) {
+        whitePieces++;
+      }
+    }
+    this.whitePieces = whitePieces;
+    this.data = data;
+    this.offset = offset;
+    this.size = Tablebase.size(width*height,pieces.length);
+  }
+
+  public static Tablebase load(String path) throws IOException {
+    //maps the file, the mapping stays valid after it is closed
+    ByteBuffer data;
+    try (RandomAccessFile file = new RandomAccessFile(path,"r")) {
+      FileChannel channel = file.getChannel();
+      long size = channel.size();
+      if (size < 14 || size > Integer.MAX_VALUE) {
+        throw new IOException("not a tablebase: " + path);
+      }
+      data = channel.map(FileChannel.MapMode.READ_ONLY,0,size);
+    }
+    if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+      throw new IOException("not a tablebase: " + path);
+    }
+    int width = data.getShort(8);
+    int height = data.getShort(10);
+    boolean friendlyFire = data.get(12) != 0;
+    char[] pieces = new char[data.get(13)];
+    for (int i=0;i<pieces.length;i++) {
+      pieces[i] = (char) data.get(14+i);
+    }
+    int offset = 14 + pieces.length;
+    Tablebase table = new Tablebase(width,height,friendlyFire,pieces,data,offset);
+    if (offset + (long) table.size > data.capacity()) {
+      throw new IOException("truncated tablebase: " + path);
+    }
+    return table;
+  }
+
+  static int size(int squares,int pieceCount) {
+    //positions in a table, too many to index with an int is an error
+    long size = 2;
+    for (int i=0;i<pieceCount;i++) {
+      size *= squares;
+      if (size > Integer.MAX_VALUE - 64) {
+        throw new IllegalArgumentException("too many positions for a tablebase");
+      }
+    }
+    return (int) size;
+  }
+
+  public byte get(int index) {
+    return this.data.get(this.offset + index);
+  }
+
+  public int index(int[] squares,boolean whiteToMove) {
+    int index = 0;
+    int squareCount = this.width*this.height;
+    for (int i=squares.length-1;i>=0;i--) {
+      index = index*squareCount + squares[i];
+    }
+    return index*2 + (whiteToMove ? 0 : 1);
+  }
+
+  public byte probe(Board board) {
+    //the value of a position with exactly these pieces, the caller checks the material and size
+    int[] squares = new int[this.pieces.length];
+    boolean[] used = new boolean[this.pieces.length];
+    for (int i=0;i<board.width;i++) {
+      for (int j=0;j<board.height;j++) {
+        Piece piece = board.boardstate[i][j];
+        if (piece.isPiece) {
+          char letter = piece.side == 1 ? Character.toUpperCase(piece.letter) : piece.letter;
+          for (int k=0;k<this.pieces.length;k++) {
+            if (!used[k] && this.pieces[k] == letter) {
+              used[k] = true;
+              squares[k] = i*board.height+j;
+              break;
+            }
+          }
+        }
+      }
+    }
+    return this.get(this.index(squares,board.toMove));
+  }
+
+  public static String material(char[] pieces) {
+    //name of a set of pieces, e.g. KCvK
+    String white = "";
+    String black = "";
+    for (char piece : pieces) {
+      if (Character.isUpperCase(piece)) {
+        white += piece;
+      }
+      else {
+        black += Character.toUpperCase(piece);
+      }
+    }
+    return white + "v" + black;
+  }
+
+  public static char[] pieces(String material) {
+    //FEN letters in index order from a name like KCvK, the kings don't have to come first
+    int split = material.toLowerCase().indexOf('v');
+    if (split == -1) {
+      throw new IllegalArgumentException("material should look like KCvK");
+    }
+    ArrayList<Character> pieces = new ArrayList<>();
+    for (int i=0;i<material.length();i++) {
+      if (i != split) {
+        char letter = Character.toLowerCase(material.charAt(i));
+        pieces.add(i < split ? Character.toUpperCase(letter) : letter);
+      }
+    }
+    char[] result = new char[pieces.size()];
+    for (int i=0;i<result.length;i++) {
+      result[i] = pieces.get(i);
+    }
+    Tablebase.sort(result);
+    if (result.length < 2 || result[0] != 'K' || Tablebase.count(result,'K') != 1 ||
+        Tablebase.count(result,'k') != 1) {
+      throw new IllegalArgumentException("material needs exactly one king for each side");
+    }
+    for (char piece : result) {
+      if (EXCLUDED.indexOf(Character.toLowerCase(piece)) != -1) {
+        throw new IllegalArgumentException("tablebases can't have pawns");
+      }
+    }
+    return result;
+  }
+
+  static void sort(char[] pieces) {
+    //white before black, then kings first, then by letter
+    Character[] boxed = new Character[pieces.length];
+    for (int i=0;i<pieces.length;i++) {
+      boxed[i] = pieces[i];
+    }
+    Arrays.sort(boxed,new Comparator<Character>() {
+      @Override
+      public int compare(Character first,Character second) {
+        return Tablebase.order(first) - Tablebase.order(second);
+      }
+    });
+    for (int i=0;i<pieces.length;i++) {
+      pieces[i] = boxed[i];
+    }
+  }
+
+  static int order(char piece) {
+    int order = Character.toLowerCase(piece) == 'k' ? 0 : Character.toLowerCase(piece);
+    return Character.isUpperCase(piece) ? order : order + 1000;
+  }
+
+  static int count(char[] pieces,char piece) {
+    int count = 0;
+    for (char other : pieces) {
+      if (other == piece) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public static String fileName(String material,int width,int height,boolean friendlyFire) {
+    return material + "_" + width + "x" + height + (friendlyFire ? "_ff" : "") + ".tb";
+  }
+
+  public static int plies(byte value) {
+    //half moves until mate, -1 for a draw
+    if (value > 0) {
+      return 2*value-1;
+    }
+    if (value < 0 && value != ILLEGAL) {
+      return 2*(-value-1);
+    }
+    return -1;
+  }
+
+  public static int score(Board board,byte value) {
+    //converts a value to an engine score, mates are scored by the move number they happen on
+    if (value == 0 || value == ILLEGAL) {
+      return 0;
+    }
+    int plies = Tablebase.plies(value);
+    int mateMove = board.moves + (plies + (board.toMove ? 0 : 1))/2;
+    return value > 0 ? Integer.MAX_VALUE-mateMove : Integer.MIN_VALUE+1+mateMove;
+  }
+}
@@ -0,0 +1,405 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+public class TablebaseGenerator {
+  /*
+  Generates tablebases by retrograde analysis
+  Every position is set up once to count its moves and look up its captures in the smaller
+  tables, then mates are found backwards: positions lost in n half moves are unmoved to
+  find the wins in n+1, and a position is lost once all its moves lead to wins for the opponent
+  Unmoving relies on the pieces moving the same way backwards, which is true for everything but pawns
+  The tables for the pieces left after captures are generated first
+  */
+
+  //longest mate that fits in a value
+  static final int MAX_PLIES = 253;
+
+  //move counter flags
+  static final short FINISHED = -1; //illegal, or a draw that needs no more work
+  static final short ESCAPE = 0x4000; //a capture holds the draw so the position can't be lost
+
+  public final int width;
+  public final int height;
+  public final boolean friendlyFire;
+  final File directory;
+
+  final int squareCount;
+  final int[][] coordinates;
+  final Board board;
+
+  //tables generated or loaded so far, by material
+  final HashMap<String,Tablebase> tables;
+
+  public TablebaseGenerator(String directory,int width,int height,boolean friendlyFire) {
+    this.width = width;
+    this.height = height;
+    this.friendlyFire = friendlyFire;
+    this.directory = new File(directory);
+    this.squareCount = width*height;
+    this.coordinates = new int[this.squareCount][];
+    for (int i=0;i<this.squareCount;i++) {
+      this.coordinates[i] = new int[] {i/height,i%height};
+    }
+    this.tables = new HashMap<>();
+
+    //empty board used to test moves, the kings are only there so the FEN is valid
+    String fen = "k" + (width > 1 ? width-1 : "");
+    for (int i=0;i<height-2;i++) {
+      fen += "/" + width;
+    }
+    fen += "/K" + (width > 1 ? width-1 : "") + " w - - 0 1";
+    this.board = new Board(fen,0,1,1,width,friendlyFire);
+    for (int i=0;i<width;i++) {
+      for (int j=0;j<height;j++) {
+        this.board.setSquare(i,j,Piece.square,null);
+      }
+    }
+  }
+
+  public Tablebase generate(String material) throws IOException {
+    //generates a table and everything it depends on, files already in the directory are reused
+    char[] pieces = Tablebase.pieces(material);
+    material = Tablebase.material(pieces);
+    Tablebase table = this.tables.get(material);
+    if (table != null) {
+      return table;
+    }
+    File file = new File(this.directory,Tablebase.fileName(material,this.width,this.height,this.friendlyFire));
+    if (file.isFile()) {
+      table = Tablebase.load(file.getPath());
+    }
+    else {
+      long startTime = System.nanoTime();
+      byte[] values = this.build(pieces);
+      this.write(file,pieces,values);
+      table = new Tablebase(this.width,this.height,this.friendlyFire,pieces,ByteBuffer.wrap(values),0);
+      TablebaseGenerator.report(material,values,(System.nanoTime()-startTime)/1000000);
+    }
+    this.tables.put(material,table);
+    return table;
+  }
+
+  byte[] build(char[] pieces) throws IOException {
+    int pieceCount = pieces.length;
+    int squareCount = this.squareCount;
+    int size = Tablebase.size(squareCount,pieceCount);
+    Board board = this.board;
+    Piece[][] boardstate = board.boardstate;
+
+    Piece[] pieceTypes = new Piece[pieceCount];
+    int blackKing = 0;
+    boolean alwaysSufficient = false;
+    for (int i=0;i<pieceCount;i++) {
+      pieceTypes[i] = new Piece(pieces[i]);
+      if (pieces[i] == 'k') {
+        blackKing = i;
+      }
+      if (PieceType.of(Character.toLowerCase(pieces[i])).material == PieceType.MAJOR_MATERIAL) {
+        alwaysSufficient = true;
+      }
+    }
+
+    //tables after each piece is captured, null when only the kings are left
+    Tablebase[] captures = new Tablebase[pieceCount];
+    for (int i=0;i<pieceCount;i++) {
+      if (pieceTypes[i].letter != 'k' && pieceCount > 3) {
+        char[] remaining = new char[pieceCount-1];
+        for (int j=0;j<pieceCount-1;j++) {
+          remaining[j] = pieces[j < i ? j : j+1];
+        }
+        captures[i] = this.generate(Tablebase.material(remaining));
+      }
+    }
+
+    //index step for each piece
+    int[] steps = new int[pieceCount];
+    steps[0] = 2;
+    for (int i=1;i<pieceCount;i++) {
+      steps[i] = steps[i-1]*squareCount;
+    }
+
+    byte[] values = new byte[size];
+    short[] counters = new short[size];
+    //shortest win and longest loss from captures, then from unmoving, in half moves
+    byte[] wins = new byte[size];
+    byte[] losses = new byte[size];
+    int lastPending = 0;
+
+    int[] squares = new int[pieceCount];
+    int[] remaining = new int[pieceCount-1];
+    for (int index=0;index<size;index++) {
+      boolean white = (index & 1) == 0;
+      if (!this.setUp(index,squares,pieceTypes)) {
+        values[index] = Tablebase.ILLEGAL;
+        counters[index] = FINISHED;
+        continue;
+      }
+      int[] ownKing = this.coordinates[squares[white ? 0 : blackKing]];
+      int[] otherKing = this.coordinates[squares[white ? blackKing : 0]];
+      if (board.isAttacked(otherKing,white)) {
+        //the side that just moved is in check
+        values[index] = Tablebase.ILLEGAL;
+        counters[index] = FINISHED;
+        this.clear(squares);
+        continue;
+      }
+      boolean inCheck = board.isAttacked(ownKing,!white);
+      boolean sufficient = alwaysSufficient || board.isSufficientMaterial();
+
+      int moves = 0;
+      int counter = 0;
+      int win = 0;
+      int loss = 0;
+      for (int i=0;i<pieceCount;i++) {
+        Piece piece = pieceTypes[i];
+        if ((piece.side == 1) != white) {
+          continue;
+        }
+        int start = squares[i];
+        int[] startSquare = this.coordinates[start];
+        boolean king = piece.letter == 'k';
+        for (int end=0;end<squareCount;end++) {
+          if (end == start) {
+            continue;
+          }
+          int[] endSquare = this.coordinates[end];
+          Piece target = boardstate[endSquare[0]][endSquare[1]];
+          int captured = -1;
+          if (target.isPiece) {
+            if (target.letter == 'k' || (target.side == piece.side && !this.friendlyFire)) {
+              continue;
+            }
+            for (int j=0;j<pieceCount;j++) {
+              if (squares[j] == end) {
+                captured = j;
+              }
+            }
+          }
+          if (!board.validSquare(startSquare,endSquare,piece.letter,piece.side,target)) {
+            continue;
+          }
+
+          //make sure the king is safe after the move
+          boardstate[startSquare[0]][startSquare[1]] = Piece.square;
+          boardstate[endSquare[0]][endSquare[1]] = piece;
+          boolean legal = !board.isAttacked(king ? endSquare : ownKing,!white);
+          boardstate[startSquare[0]][startSquare[1]] = piece;
+          boardstate[endSquare[0]][endSquare[1]] = target;
+          if (!legal) {
+            continue;
+          }
+          moves++;
+
+          if (captured == -1) {
+            counter++;
+            continue;
+          }
+          //captures are looked up in the smaller table
+          byte value = 0;
+          Tablebase table = captures[captured];
+          if (table != null) {
+            int k = 0;
+            for (int j=0;j<pieceCount;j++) {
+              if (j != captured) {
+                remaining[k] = j == i ? end : squares[j];
+                k++;
+              }
+            }
+            value = table.get(table.index(remaining,!white));
+          }
+          if (value == 0 || value == Tablebase.ILLEGAL) {
+            counter |= ESCAPE;
+          }
+          else if (value < 0) {
+            int plies = Tablebase.plies(value)+1;
+            win = win == 0 ? plies : Math.min(win,plies);
+          }
+          else {
+            loss = Math.max(loss,Tablebase.plies(value)+1);
+          }
+        }
+      }
+      this.clear(squares);
+
+      if (moves == 0) {
+        //checkmate or stalemate
+        values[index] = inCheck ? (byte) -1 : 0;
+        counters[index] = FINISHED;
+      }
+      else if (!sufficient) {
+        counters[index] = FINISHED;
+      }
+      else {
+        counters[index] = (short) counter;
+        wins[index] = (byte) win;
+        losses[index] = (byte) loss;
+        lastPending = Math.max(lastPending,Math.max(win,loss));
+      }
+    }
+
+    for (int plies=1;plies<=MAX_PLIES;plies++) {
+      //unmove from the positions decided last time
+      for (int index=0;index<size;index++) {
+        byte value = values[index];
+        if (value == 0 || value == Tablebase.ILLEGAL || Tablebase.plies(value) != plies-1) {
+          continue;
+        }
+        boolean white = (index & 1) == 0;
+        this.setUp(index,squares,pieceTypes);
+        //the previous position has the other side to move
+        int flipped = index ^ 1;
+        for (int i=0;i<pieceCount;i++) {
+          Piece piece = pieceTypes[i];
+          if ((piece.side == 1) == white) {
+            continue;
+          }
+          int end = squares[i];
+          int[] endSquare = this.coordinates[end];
+          for (int start=0;start<squareCount;start++) {
+            int[] startSquare = this.coordinates[start];
+            if (boardstate[startSquare[0]][startSquare[1]].isPiece ||
+                !board.validSquare(endSquare,startSquare,piece.letter,piece.side,Piece.square)) {
+              continue;
+            }
+            int previous = flipped + (start-end)*steps[i];
+            if (values[previous] != 0 || counters[previous] == FINISHED) {
+              continue;
+            }
+            if (value < 0) {
+              //the previous position can move into a loss
+              int win = wins[previous] & 0xff;
+              if (win == 0 || win > plies) {
+                wins[previous] = (byte) plies;
+              }
+            }
+            else {
+              counters[previous]--;
+              if (counters[previous] == 0) {
+                losses[previous] = (byte) Math.max(losses[previous] & 0xff,plies);
+              }
+            }
+          }
+        }
+        this.clear(squares);
+      }
+
+      //decide the positions with their result at this distance
+      int decided = 0;
+      for (int index=0;index<size;index++) {
+        if (values[index] != 0 || counters[index] == FINISHED) {
+          continue;
+        }
+        int win = wins[index] & 0xff;
+        if (win == plies) {
+          values[index] = (byte) ((plies+1)/2);
+          decided++;
+        }
+        else if (win == 0 && counters[index] == 0 && (losses[index] & 0xff) == plies && plies < MAX_PLIES) {
+          values[index] = (byte) -(plies/2+1);
+          decided++;
+        }
+      }
+      if (decided == 0 && plies >= lastPending) {
+        break;
+      }
+    }
+    //anything not decided is a draw
+    return values;
+  }
+
+  boolean setUp(int index,int[] squares,Piece[] pieceTypes) {
+    //puts the pieces for an index on the board, false if two are on the same square
+    int rest = index >>> 1;
+    for (int i=0;i<squares.length;i++) {
+      squares[i] = rest % this.squareCount;
+      rest /= this.squareCount;
+      for (int j=0;j<i;j++) {
+        if (squares[j] == squares[i]) {
+          return false;
+        }
+      }
+    }
+    //placed through the board so its material is right
+    for (int i=0;i<squares.length;i++) {
+      int[] square = this.coordinates[squares[i]];
+      this.board.setSquare(square[0],square[1],pieceTypes[i],null);
+    }
+    return true;
+  }
+
+  void clear(int[] squares) {
+    for (int square : squares) {
+      this.board.setSquare(this.coordinates[square][0],this.coordinates[square][1],Piece.square,null);
+    }
+  }
+
+  void write(File file,char[] pieces,byte[] values) throws IOException {
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      output.writeInt(Tablebase.MAGIC);
+      output.writeInt(Tablebase.VERSION);
+      output.writeShort(this.width);
+      output.writeShort(this.height);
+      output.writeByte(this.friendlyFire ? 1 : 0);
+      output.writeByte(pieces.length);
+      for (char piece : pieces) {
+        output.writeByte(piece);
+      }
+      output.write(values);
+    }
+  }
+
+  static void report(String material,byte[] values,long time) {
+    long wins = 0;
+    long losses = 0;
+    long draws = 0;
+    int longest = 0;
+    for (byte value : values) {
+      if (value == Tablebase.ILLEGAL) {
+        continue;
+      }
+      if (value > 0) {
+        wins++;
+        longest = Math.max(longest,value);
+      }
+      else if (value < 0) {
+        losses++;
+      }
+      else {
+        draws++;
+      }
+    }
+    System.out.println(material + ": " + wins + " wins " + losses + " losses " + draws + " draws, longest mate " +
+        longest + " moves, " + time + "ms");
+  }
+
+  public static void main(String[] args) throws IOException {
+    //usage: TablebaseGenerator <directory> <width>x<height> <material>... [-friendlyfire]
+    if (args.length < 3) {
+      System.err.println("usage: TablebaseGenerator <directory> <width>x<height> <material>... [-friendlyfire]");
+      System.exit(1);
+    }
+    boolean friendlyFire = false;
+    for (String arg : args) {
+      if (arg.equals("-friendlyfire")) {
+        friendlyFire = true;
+      }
+    }
+    String size = args[1];
+    int width = Integer.parseInt(size.substring(0,size.indexOf('x')));
+    int height = Integer.parseInt(size.substring(size.indexOf('x')+1));
+    new File(args[0]).mkdirs();
+    TablebaseGenerator generator = new TablebaseGenerator(args[0],width,height,friendlyFire);
+    for (int i=2;i<args.length;i++) {
+      if (!args[i].equals("-friendlyfire")) {
+        generator.generate(args[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Tablebases {
+  /*
+  The tablebase files in a directory, opened the first time a position needs them
+  Safe to share between search threads
+  */
+
+  //returned by probe when there is no table for the position
+  public static final int NONE = Integer.MIN_VALUE;
+
+  final File directory;
+  final int maxPieces;
+
+  //loaded tables by file name, files that don't exist are remembered so they aren't looked for again
+  final ConcurrentHashMap<String,Tablebase> tables;
+  final ConcurrentHashMap<String,Boolean> missing;
+
+  public Tablebases(String directory,int maxPieces) {
+    this.directory = new File(directory);
+    this.maxPieces = maxPieces;
+    this.tables = new ConcurrentHashMap<>();
+    this.missing = new ConcurrentHashMap<>();
+  }
+
+  public Tablebase get(String material,int width,int height,boolean friendlyFire) {
+    //the table for some pieces, null if it hasn't been generated
+    String name = Tablebase.fileName(material,width,height,friendlyFire);
+    Tablebase table = this.tables.get(name);
+    if (table != null || this.missing.containsKey(name)) {
+      return table;
+    }
+    File file = new File(this.directory,name);
+    try {
+      table = file.isFile() ? Tablebase.load(file.getPath()) : null;
+    }
+    catch (IOException e) {
+      table = null;
+    }
+    if (table == null) {
+      this.missing.put(name,true);
+      return null;
+    }
+    Tablebase existing = this.tables.putIfAbsent(name,table);
+    return existing == null ? table : existing;
+  }
+
+  public int probe(Board board) {
+    //the score of the position from the tablebases, NONE if it isn't in them
+    if (board.promotionAvailable || board.castleRights[0] || board.castleRights[1] ||
+        board.castleRights[2] || board.castleRights[3]) {
+      return NONE;
+    }
+    //the material signature says which table to use without looking at the board
+    int[] material = board.material;
+    int count = material[Board.WHITE_PIECES] + material[Board.BLACK_PIECES];
+    if (count > this.maxPieces || material[Board.LETTERS-1] > 0 || material[2*Board.LETTERS-1] > 0) {
+      return NONE;
+    }
+    for (int i=0;i<Tablebase.EXCLUDED.length();i++) {
+      char excluded = Tablebase.EXCLUDED.charAt(i);
+      if (board.count(excluded) > 0 || board.count(Character.toUpperCase(excluded)) > 0) {
+        return NONE;
+      }
+    }
+    //in the order of Tablebase.sort, each side's kings first then the other pieces by letter
+    char[] pieces = new char[count];
+    count = 0;
+    for (int side=0;side<2;side++) {
+      int offset = side*Board.LETTERS;
+      char first = side == 0 ? 'A' : 'a';
+      for (int i=0;i<material[offset+'k'-'a'];i++) {
+        pieces[count] = (char) (first+'k'-'a');
+        count++;
+      }
+      for (int letter=0;letter<Board.LETTERS-1;letter++) {
+        for (int i=0;letter!='k'-'a' && i<material[offset+letter];i++) {
+          pieces[count] = (char) (first+letter);
+          count++;
+        }
+      }
+    }
+    Tablebase table = this.get(Tablebase.material(pieces),board.width,board.height,board.friendlyFire);
+    if (table == null) {
+      return NONE;
+    }
+    byte value = table.probe(board);
+    return value == Tablebase.ILLEGAL ? NONE : Tablebase.score(board,value);
+  }
+}
@@ -0,0 +1,169 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class TranspositionTable {
+  /*
+  Stores search results by position hash so transpositions are only searched once
+  The entries are kept in direct buffers outside the heap, so a large table costs the garbage
+  collector nothing and the memory it uses is fixed when it is made
+  Entries are grouped in buckets of 4 that fill a cache line, a position can be in any entry of
+  its bucket and the one worth least is replaced, entries from older searches are worth less
+  Entries are stored with the key xored with the data so that threads can share
+  the table without locks, a torn write just looks like a miss
+  The engine scores mates by the move they happen on, which isn't part of the key, so mate
+  scores are stored as moves from the position they are stored for, see toTable and fromTable
+  */
+
+  //returned by probe when the position isn't stored
+  public static final long NONE = -1;
+
+  //kinds of score stored
+  public static final int EXACT = 0;
+  public static final int LOWER = 1; //the score is at least this
+  public static final int UPPER = 2; //the score is at most this
+
+  //a key and data of 8 bytes each for each entry
+  static final int ENTRY_BYTES = 16;
+  static final int BUCKET_ENTRIES = 4;
+  static final int BUCKET_BYTES = ENTRY_BYTES*BUCKET_ENTRIES;
+
+  //scores this close to the limits are mates, see Search.mateIn
+  static final int MATE_RANGE = 1000000;
+
+  //depth an entry is worth less for each search since it was stored
+  static final int AGE_PENALTY = 8;
+
+  //buffers are indexed by int, so large tables are split into chunks of 2^24 buckets
+  static final int CHUNK_BITS = 24;
+
+  final ByteBuffer[] chunks;
+  final long mask;
+  final int chunkMask;
+
+  //search number, so entries from old searches get replaced
+  volatile int generation;
+
+  public TranspositionTable(int megabytes) {
+    //use the largest power of 2 buckets that fits
+    long buckets = Long.highestOneBit(Math.max(1,((long) megabytes << 20) / BUCKET_BYTES));
+    int chunkBuckets = (int) Math.min(buckets,1 << CHUNK_BITS);
+    this.chunks = new ByteBuffer[(int) (buckets / chunkBuckets)];
+    for (int i=0;i<this.chunks.length;i++) {
+      this.chunks[i] = ByteBuffer.allocateDirect(chunkBuckets*BUCKET_BYTES).order(ByteOrder.nativeOrder());
+    }
+    this.mask = buckets-1;
+    this.chunkMask = chunkBuckets-1;
+  }
+
+  public long size() {
+    //bytes used by the entries
+    return (this.mask+1)*BUCKET_BYTES;
+  }
+
+  public synchronized void newSearch() {
+    //entries stored before this age, the generation only goes up to 255 so entries
+    //look stale after a few dozen calls. A table shared by several games shouldn't
+    //have this called for every search of every game, see GameServer
+    this.generation = (this.generation + 1) & 0xff;
+  }
+
+  public long probe(long hash) {
+    long bucket = hash & this.mask;
+    ByteBuffer chunk = this.chunks[(int) (bucket >>> CHUNK_BITS)];
+    int offset = ((int) bucket & this.chunkMask) * BUCKET_BYTES;
+    for (int i=0;i<BUCKET_ENTRIES;i++) {
+      int entry = offset + i*ENTRY_BYTES;
+      long data = chunk.getLong(entry+8);
+      if ((chunk.getLong(entry) ^ data) == hash) {
+        return data;
+      }
+    }
+    return NONE;
+  }
+
+  public void store(long hash,int depth,int bound,int score) {
+    long bucket = hash & this.mask;
+    ByteBuffer chunk = this.chunks[(int) (bucket >>> CHUNK_BITS)];
+    int offset = ((int) bucket & this.chunkMask) * BUCKET_BYTES;
+    int generation = this.generation;
+
+    //the entry for the same position if there is one, otherwise the one worth least
+    int replaced = offset;
+    int leastWorth = Integer.MAX_VALUE;
+    for (int i=0;i<BUCKET_ENTRIES;i++) {
+      int entry = offset + i*ENTRY_BYTES;
+      long oldData = chunk.getLong(entry+8);
+      if ((chunk.getLong(entry) ^ oldData) == hash) {
+        replaced = entry;
+        break;
+      }
+      int worth;
+      if (oldData == 0) {
+        //empty
+        worth = Integer.MIN_VALUE;
+      }
+      else {
+        int age = (generation - TranspositionTable.generation(oldData)) & 0xff;
+        worth = TranspositionTable.depth(oldData) - AGE_PENALTY*age;
+      }
+      if (worth < leastWorth) {
+        leastWorth = worth;
+        replaced = entry;
+      }
+    }
+
+    long data = (score & 0xffffffffL) | ((long) (depth & 0xffff) << 32) | ((long) bound << 48) |
+        ((long) generation << 50);
+    chunk.putLong(replaced+8,data);
+    chunk.putLong(replaced,hash ^ data);
+  }
+
+  public void clear() {
+    for (ByteBuffer chunk : this.chunks) {
+      for (int i=0, length=chunk.capacity();i<length;i+=8) {
+        chunk.putLong(i,0);
+      }
+    }
+  }
+
+  static int toTable(int score,int moves) {
+    //a score to store for a position on a move number, mates are made relative to it
+    //bounds past any mate, such as the window of the first search, stay at the limits
+    if (score > Integer.MAX_VALUE - MATE_RANGE) {
+      return score > Integer.MAX_VALUE - moves ? Integer.MAX_VALUE : score + moves;
+    }
+    if (score < Integer.MIN_VALUE + MATE_RANGE) {
+      return score < Integer.MIN_VALUE+1 + moves ? Integer.MIN_VALUE+1 : score - moves;
+    }
+    return score;
+  }
+
+  static int fromTable(int score,int moves) {
+    //a stored score back to one for a position on a move number
+    if (score > Integer.MAX_VALUE - MATE_RANGE) {
+      return score - moves;
+    }
+    if (score < Integer.MIN_VALUE + MATE_RANGE) {
+      return score + moves;
+    }
+    return score;
+  }
+
+  public static int score(long data) {
+    return (int) data;
+  }
+
+  public static int depth(long data) {
+    return (int) (data >>> 32) & 0xffff;
+  }
+
+  public static int bound(long data) {
+    return (int) (data >>> 48) & 0x3;
+  }
+
+  static int generation(long data) {
+    return (int) (data >>> 50) & 0xff;
+  }
+}
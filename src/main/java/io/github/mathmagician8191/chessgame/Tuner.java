@@ -0,0 +1,468 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Tuner {
+  /*
+  Tunes the evaluation weights to predict the results of played games, Texel's method
+  Every position of a game after the first few moves is labelled with the game's result, games
+  without a result are skipped. A quiescence search resolves each position first and the position
+  at the end of its line of captures is kept, so exchanges in progress don't mislead the tuning
+  The error is the mean squared difference between the results and sigmoid(K*score), the win chance
+  for the score from white's side, with K fitted to the starting weights
+  The weights are improved by local search: each one is moved by a step while that lowers the error,
+  then the step is halved. Ranges can't go below 0 and always move by 1
+  Positions are stored as the features Engine.evaluate uses for each piece, so millions of them
+  fit in memory and the error for all of them is found in parallel in well under a second
+  */
+
+  static class Positions {
+    /*
+    Positions from white's side, position i has the pieces from start[i] up to start[i+1]
+    Each piece is a long: letter index, 7 bits, side, 1 bit with 1 for white, bonus, 2 bits,
+    then 16 bits each for the king distance, distance from the sides, distance from the ends
+    and 6 bits for the capped advancement, as in Engine.evaluate
+    */
+
+    int count;
+    int[] start = new int[65];
+    int[] size = new int[64]; //width << 16 | height
+    int[] constant = new int[64]; //Engine.kingScore
+    double[] result = new double[64]; //1 for a white win, 0.5 for a draw, 0 for a black win
+    long[] pieces = new long[1024];
+    int pieceCount;
+
+    void add(Board board,double result) {
+      if (this.count == this.size.length) {
+        int length = this.count*2;
+        this.start = Arrays.copyOf(this.start,length+1);
+        this.size = Arrays.copyOf(this.size,length);
+        this.constant = Arrays.copyOf(this.constant,length);
+        this.result = Arrays.copyOf(this.result,length);
+      }
+      for (int i=0;i<board.width;i++) {
+        for (int j=0;j<board.height;j++) {
+          Piece piece = board.boardstate[i][j];
+          if (!piece.isPiece) {
+            continue;
+          }
+          if (this.pieceCount == this.pieces.length) {
+            this.pieces = Arrays.copyOf(this.pieces,this.pieceCount*2);
+          }
+          this.pieces[this.pieceCount] = Tuner.features(board,i,j,piece);
+          this.pieceCount++;
+        }
+      }
+      this.size[this.count] = (board.width << 16) | board.height;
+      this.constant[this.count] = Engine.kingScore(board);
+      this.result[this.count] = result;
+      this.count++;
+      this.start[this.count] = this.pieceCount;
+    }
+
+    void addAll(Positions other) {
+      for (int i=0;i<other.count;i++) {
+        if (this.count == this.size.length) {
+          int length = this.count*2;
+          this.start = Arrays.copyOf(this.start,length+1);
+          this.size = Arrays.copyOf(this.size,length);
+          this.constant = Arrays.copyOf(this.constant,length);
+          this.result = Arrays.copyOf(this.result,length);
+        }
+        int pieces = other.start[i+1]-other.start[i];
+        if (this.pieceCount+pieces > this.pieces.length) {
+          this.pieces = Arrays.copyOf(this.pieces,Math.max(this.pieces.length*2,this.pieceCount+pieces));
+        }
+        System.arraycopy(other.pieces,other.start[i],this.pieces,this.pieceCount,pieces);
+        this.pieceCount += pieces;
+        this.size[this.count] = other.size[i];
+        this.constant[this.count] = other.constant[i];
+        this.result[this.count] = other.result[i];
+        this.count++;
+        this.start[this.count] = this.pieceCount;
+      }
+    }
+
+    int score(int[] weights,int position) {
+      //the score from white's side, the same as Engine.evaluate gives with these weights
+      int width = this.size[position] >>> 16;
+      int height = this.size[position] & 0xffff;
+      int rookBonus = EvaluationWeights.sizeBonus(weights,PieceType.ROOK_BONUS,width,height);
+      int bishopBonus = EvaluationWeights.sizeBonus(weights,PieceType.BISHOP_BONUS,width,height);
+      int score = this.constant[position];
+      for (int i=this.start[position];i<this.start[position+1];i++) {
+        long piece = this.pieces[i];
+        int bonus = (int) (piece >>> 8) & 0x3;
+        int sizeBonus = bonus == PieceType.ROOK_BONUS ? rookBonus :
+            bonus == PieceType.BISHOP_BONUS ? bishopBonus : 0;
+        int pieceScore = Engine.pieceScore(weights,(int) piece & 0x7f,sizeBonus,(int) (piece >>> 10) & 0xffff,
+            (int) (piece >>> 26) & 0xffff,(int) (piece >>> 42) & 0xffff,(int) (piece >>> 58));
+        score += (piece & 0x80) != 0 ? pieceScore : -pieceScore;
+      }
+      return score;
+    }
+  }
+
+  final int skipPlies;
+  final int quiescenceDepth;
+  final int threads;
+  final ExecutorService workers;
+
+  //weights for the quiescence searches that resolve the positions
+  final EvaluationWeights weights;
+
+  final Positions positions;
+  //letter indices of the pieces in the positions, only their weights are tuned
+  final boolean[] letters;
+
+  //fitted by fitScale
+  double scale;
+
+  public Tuner(int skipPlies,int quiescenceDepth,int threads,EvaluationWeights weights) {
+    this.skipPlies = skipPlies;
+    this.quiescenceDepth = quiescenceDepth;
+    this.threads = threads;
+    this.weights = weights;
+    this.workers = Executors.newFixedThreadPool(threads);
+    this.positions = new Positions();
+    this.letters = new boolean[128];
+    this.scale = 1;
+  }
+
+  static long features(Board board,int column,int row,Piece piece) {
+    //what Engine.evaluate looks at for a piece, packed as described in Positions
+    PieceType type = PieceType.of(piece.letter);
+    int[] king = piece.side == 1 ? board.blackKingLocation : board.whiteKingLocation;
+    long kingDistance = Math.abs(column-king[0]) + Math.abs(row-king[1]);
+    long distanceX = Math.min(column,board.width-1-column);
+    long distanceY = Math.min(row,board.height-1-row);
+    int advancement = piece.side == 1 ? row : board.height-1-row;
+    long advancementCapped = (advancement * 10)/board.height;
+    return EvaluationWeights.index(type) | (piece.side == 1 ? 0x80 : 0) | ((long) type.bonus << 8) |
+        (kingDistance << 10) | (distanceX << 26) | (distanceY << 42) | (advancementCapped << 58);
+  }
+
+  Positions resolve(List<ArchivedGame> games) {
+    //the labelled leaf positions of some games, games with bad moves are left out
+    Positions positions = new Positions();
+    for (ArchivedGame archived : games) {
+      if (archived.result == ArchivedGame.UNKNOWN) {
+        continue;
+      }
+      Positions leaves = new Positions();
+      Engine engine = new Engine(archived.start,1,this.quiescenceDepth);
+      engine.setWeights(this.weights);
+      boolean legal = true;
+      for (int i=0;i<archived.moves.size() && legal;i++) {
+        if (i >= this.skipPlies && !engine.position.gameOver) {
+          Board leaf = this.leaf(engine);
+          if (leaf != null) {
+            leaves.add(leaf,(archived.result+1)/2.0);
+            //features that don't give the same score would tune something other than the evaluation
+            assert leaves.score(this.weights.weights,leaves.count-1) ==
+                engine.evaluate(leaf,SearchContext.NO_RESULT) * (leaf.toMove ? 1 : -1) :
+                "stored position doesn't score the same as " + leaf;
+          }
+        }
+        legal = engine.makeMove(archived.moves.get(i));
+      }
+      if (legal) {
+        positions.addAll(leaves);
+      }
+    }
+    return positions;
+  }
+
+  Board leaf(Engine engine) {
+    //the position at the end of the line quiescence finds, null if the line ends the game
+    SearchContext context = new SearchContext(engine,this.quiescenceDepth+1);
+    context.quiescencePv = true;
+    int score = context.quiescence(0,Integer.MIN_VALUE+1,Integer.MAX_VALUE,this.quiescenceDepth);
+    Board leaf = new Board(engine.position);
+    for (int i=0;i<context.pvLength[0];i++) {
+      long move = context.pv[0][i];
+      leaf.movePiece(context.squares[(int) (move >>> 40)],context.squares[(int) (move >>> 16) & 0xffffff]);
+      if ((char) move != 0) {
+        leaf.promotePiece((char) move);
+      }
+    }
+    //a line ending the game is scored without the evaluation
+    int sign = context.pvLength[0]%2 == 0 ? 1 : -1;
+    if (engine.evaluate(leaf,SearchContext.NO_RESULT)*sign != score) {
+      return null;
+    }
+    return leaf;
+  }
+
+  public void addGames(List<ArchivedGame> games) throws InterruptedException {
+    //resolves the games in parallel, in batches so each thread has enough to do
+    int batch = Math.max(1,Math.min(64,games.size()/(this.threads*4)));
+    ArrayList<Future<Positions>> pending = new ArrayList<>();
+    for (int i=0;i<games.size();i+=batch) {
+      final List<ArchivedGame> part = games.subList(i,Math.min(games.size(),i+batch));
+      pending.add(this.workers.submit(new Callable<Positions>() {
+        @Override
+        public Positions call() {
+          return Tuner.this.resolve(part);
+        }
+      }));
+    }
+    for (Future<Positions> result : pending) {
+      Positions part = Tuner.get(result);
+      for (int i=0;i<part.pieceCount;i++) {
+        this.letters[(int) part.pieces[i] & 0x7f] = true;
+      }
+      this.positions.addAll(part);
+    }
+  }
+
+  static <T> T get(Future<T> result) throws InterruptedException {
+    try {
+      return result.get();
+    }
+    catch (ExecutionException e) {
+      //only a bug can get here, bad games are left out
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  public int size() {
+    return this.positions.count;
+  }
+
+  public double error(int[] weights,double scale) throws InterruptedException {
+    //the mean squared error over every position, split between the threads
+    final int[] vector = weights;
+    final double k = scale * Math.log(10) / 400;
+    final Positions positions = this.positions;
+    int parts = this.threads*4;
+    ArrayList<Future<Double>> pending = new ArrayList<>(parts);
+    for (int part=0;part<parts;part++) {
+      final int start = (int) ((long) positions.count*part/parts);
+      final int end = (int) ((long) positions.count*(part+1)/parts);
+      pending.add(this.workers.submit(new Callable<Double>() {
+        @Override
+        public Double call() {
+          double error = 0;
+          for (int i=start;i<end;i++) {
+            double difference = positions.result[i] - 1/(1+Math.exp(-k*positions.score(vector,i)));
+            error += difference*difference;
+          }
+          return error;
+        }
+      }));
+    }
+    double error = 0;
+    for (Future<Double> result : pending) {
+      error += Tuner.get(result);
+    }
+    return error / Math.max(1,positions.count);
+  }
+
+  public double fitScale(int[] weights) throws InterruptedException {
+    //the scale of scores that fits the results best, found to 3 decimal places
+    double best = this.error(weights,this.scale);
+    for (double step=0.1;step>=0.001;step/=10) {
+      boolean improved = true;
+      while (improved) {
+        improved = false;
+        for (int direction=-1;direction<=1;direction+=2) {
+          double scale = this.scale + direction*step;
+          if (scale <= 0) {
+            continue;
+          }
+          double error = this.error(weights,scale);
+          if (error < best) {
+            best = error;
+            this.scale = scale;
+            improved = true;
+            break;
+          }
+        }
+      }
+    }
+    return this.scale;
+  }
+
+  public int[] parameters() {
+    //the weights that affect the positions, apart from the king's value which always cancels out
+    ArrayList<Integer> parameters = new ArrayList<>();
+    boolean sizeBonus = false;
+    for (int letter=0;letter<128;letter++) {
+      if (!this.letters[letter]) {
+        continue;
+      }
+      for (int i=0;i<EvaluationWeights.PIECE_WEIGHTS.length;i++) {
+        if (letter != 'k' || i*128 != EvaluationWeights.VALUE) {
+          parameters.add(i*128+letter);
+        }
+      }
+      int bonus = letter == EvaluationWeights.UNKNOWN ? PieceType.NO_BONUS : PieceType.of((char) letter).bonus;
+      sizeBonus |= bonus != PieceType.NO_BONUS;
+    }
+    if (sizeBonus) {
+      for (int i=EvaluationWeights.ROOK_HEIGHT;i<EvaluationWeights.SIZE;i++) {
+        parameters.add(i);
+      }
+    }
+    int[] result = new int[parameters.size()];
+    for (int i=0;i<result.length;i++) {
+      result[i] = parameters.get(i);
+    }
+    return result;
+  }
+
+  static boolean isRange(int index) {
+    return index >= EvaluationWeights.THREAT_RANGE && index < EvaluationWeights.ROOM_VALUE;
+  }
+
+  public double tune(int[] weights,int step,int maxPasses,PrintStream log) throws InterruptedException {
+    //improves the weights in place, returns the final error
+    int[] parameters = this.parameters();
+    double best = this.error(weights,this.scale);
+    log.println("positions: " + this.size() + " weights: " + parameters.length + " K: " +
+        String.format("%.3f",this.scale) + " error: " + best);
+    int pass = 0;
+    for (;step>0;step/=2) {
+      boolean improved = true;
+      while (improved && pass < maxPasses) {
+        improved = false;
+        pass++;
+        for (int index : parameters) {
+          int change = Tuner.isRange(index) ? 1 : step;
+          for (int direction=-1;direction<=1;direction+=2) {
+            int original = weights[index];
+            weights[index] += direction*change;
+            if (Tuner.isRange(index) && weights[index] < 0) {
+              weights[index] = original;
+              continue;
+            }
+            double error = this.error(weights,this.scale);
+            if (error < best) {
+              best = error;
+              improved = true;
+              break;
+            }
+            weights[index] = original;
+          }
+        }
+        log.println("pass " + pass + " step " + step + " error: " + best);
+      }
+    }
+    return best;
+  }
+
+  public void shutdown() {
+    this.workers.shutdownNow();
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    //usage: Tuner <games|archive> <weights> [-skip <plies>] [-quiescence <n>] [-step <n>] [-passes <n>]
+    //  [-threads <n>] [-start <weights>], the tuned weights are written to the weights file
+    if (args.length < 2) {
+      System.err.println("usage: Tuner <games|archive> <weights> [-skip <plies>] [-quiescence <n>] " +
+          "[-step <n>] [-passes <n>] [-threads <n>] [-start <weights>]");
+      System.exit(1);
+    }
+    int skipPlies = 8;
+    int quiescenceDepth = 3;
+    int step = 8;
+    int maxPasses = 100;
+    int threads = Runtime.getRuntime().availableProcessors();
+    EvaluationWeights start = EvaluationWeights.defaults();
+    for (int i=2;i<args.length;i++) {
+      switch (args[i]) {
+        case "-skip":
+          skipPlies = Integer.parseInt(args[++i]);
+          break;
+        case "-quiescence":
+          quiescenceDepth = Integer.parseInt(args[++i]);
+          break;
+        case "-step":
+          step = Integer.parseInt(args[++i]);
+          break;
+        case "-passes":
+          maxPasses = Integer.parseInt(args[++i]);
+          break;
+        case "-threads":
+          threads = Integer.parseInt(args[++i]);
+          break;
+        case "-start":
+          start = EvaluationWeights.read(args[++i]);
+          break;
+        default:
+          System.err.println("unknown option " + args[i]);
+          System.exit(1);
+      }
+    }
+
+    //games are read in chunks so the positions are resolved while reading
+    Tuner tuner = new Tuner(skipPlies,quiescenceDepth,threads,start);
+    long startTime = System.nanoTime();
+    ArrayList<ArchivedGame> games = new ArrayList<>();
+    try {
+      if (new File(args[0]).isDirectory()) {
+        try (GameArchive archive = new GameArchive(args[0])) {
+          for (long offset=0;offset<archive.size();offset=archive.next(offset)) {
+            try {
+              games.add(archive.get(offset));
+            }
+            catch (RuntimeException e) {
+              System.err.println("game at " + offset + ": " + e.getMessage());
+            }
+            if (games.size() == 10000) {
+              tuner.addGames(games);
+              games.clear();
+            }
+          }
+        }
+      }
+      else {
+        try (BufferedReader reader = new BufferedReader(new FileReader(args[0]))) {
+          String line;
+          int number = 0;
+          while ((line = reader.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+              continue;
+            }
+            try {
+              games.add(ArchivedGame.parse(line));
+            }
+            catch (RuntimeException e) {
+              System.err.println("line " + number + ": " + e.getMessage());
+            }
+            if (games.size() == 10000) {
+              tuner.addGames(games);
+              games.clear();
+            }
+          }
+        }
+      }
+      tuner.addGames(games);
+      System.out.println("resolved " + tuner.size() + " positions in " +
+          (System.nanoTime()-startTime)/1000000 + "ms");
+
+      int[] weights = start.toVector();
+      tuner.fitScale(weights);
+      tuner.tune(weights,step,maxPasses,System.out);
+      new EvaluationWeights(weights).write(args[1]);
+    }
+    finally {
+      tuner.shutdown();
+    }
+  }
+}
@@ -0,0 +1,411 @@
+package io.github.mathmagician8191.chessgame;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class Uci {
+  /*
+  Plays through the UCI protocol on standard input and output so the engine can run
+  as a long-lived process under tournament managers and GUIs
+  The variant rules are extra options, the board size comes from the FEN
+  */
+
+  static final String STARTPOS = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+  //variant options, a king rook column of 0 means the last column
+  int pawnRow = 2;
+  int pawnSquares = 2;
+  int queenRookColumn = 1;
+  int kingRookColumn = 0;
+  String promotionOptions = "qrbn";
+  boolean friendlyFire = false;
+
+  //search options, the depth is only used when there are no other limits
+  int depth = 4;
+  int quiescenceDepth = 3;
+  int obstacleRange = 0;
+  //size of the transposition table in megabytes, it is made by the first search after it changes
+  int hash = 16;
+  TranspositionTable table;
+  //book moves are played without searching, null for no book
+  OpeningBook book;
+
+  Game game;
+  //FEN the game started from, positions from the same start replay the game instead of making a new one
+  String gameFen;
+  Search search;
+  Thread reporter;
+
+  final PrintStream out;
+
+  public Uci(PrintStream out) {
+    this.out = out;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Uci uci = new Uci(System.out);
+    BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+    String line;
+    while ((line = input.readLine()) != null) {
+      if (!uci.command(line)) {
+        break;
+      }
+    }
+    uci.stopSearch();
+  }
+
+  public boolean command(String line) {
+    //runs a command, returns false when the engine should quit
+    String[] tokens = line.trim().split("\\s+");
+    switch (tokens[0]) {
+      case "uci":
+        this.out.println("id name ChessBackend");
+        this.out.println("id author Mathmagician8191");
+        this.out.println("option name Depth type spin default 4 min 1 max " + Search.MAX_DEPTH);
+        this.out.println("option name QuiescenceDepth type spin default 3 min 0 max 100");
+        this.out.println("option name Ponder type check default false");
+        this.out.println("option name Hash type spin default 16 min 0 max 1048576");
+        this.out.println("option name ObstacleRange type spin default 0 min 0 max 1000");
+        this.out.println("option name BookFile type string default <empty>");
+        this.out.println("option name PawnRow type spin default 2 min 0 max 1000");
+        this.out.println("option name PawnSquares type spin default 2 min 1 max 1000");
+        this.out.println("option name QueenRookColumn type spin default 1 min 0 max 1000");
+        this.out.println("option name KingRookColumn type spin default 0 min 0 max 1000");
+        this.out.println("option name PromotionOptions type string default qrbn");
+        this.out.println("option name FriendlyFire type check default false");
+        this.out.println("uciok");
+        break;
+      case "isready":
+        this.out.println("readyok");
+        break;
+      case "setoption":
+        this.setOption(tokens);
+        break;
+      case "ucinewgame":
+        this.stopSearch();
+        this.game = null;
+        if (this.table != null) {
+          this.table.clear();
+        }
+        break;
+      case "position":
+        this.stopSearch();
+        this.setPosition(tokens);
+        break;
+      case "go":
+        this.stopSearch();
+        this.go(tokens);
+        break;
+      case "stop":
+        if (this.search != null) {
+          this.search.stop();
+        }
+        break;
+      case "ponderhit":
+        if (this.search != null) {
+          this.search.ponderhit();
+        }
+        break;
+      case "d":
+        //not part of UCI, shows the current position
+        this.out.println(this.game == null ? "no position" : this.game.toString());
+        break;
+      case "quit":
+        return false;
+      default:
+        if (!tokens[0].isEmpty()) {
+          this.out.println("info string unknown command " + tokens[0]);
+        }
+    }
+    return true;
+  }
+
+  void setOption(String[] tokens) {
+    //setoption name <name> value <value>, the name and value can contain spaces
+    //the rules may change so the next position starts a new game
+    this.gameFen = null;
+    String name = "";
+    String value = "";
+    boolean inValue = false;
+    for (int i=1;i<tokens.length;i++) {
+      if (tokens[i].equals("name") && i == 1) {
+        continue;
+      }
+      if (tokens[i].equals("value") && !inValue) {
+        inValue = true;
+        continue;
+      }
+      if (inValue) {
+        value += value.isEmpty() ? tokens[i] : " " + tokens[i];
+      }
+      else {
+        name += name.isEmpty() ? tokens[i] : " " + tokens[i];
+      }
+    }
+    try {
+      switch (name.toLowerCase()) {
+        case "depth":
+          this.depth = Integer.parseInt(value);
+          break;
+        case "quiescencedepth":
+          this.quiescenceDepth = Integer.parseInt(value);
+          break;
+        case "hash":
+          this.hash = Integer.parseInt(value);
+          this.table = null;
+          break;
+        case "obstaclerange":
+          this.obstacleRange = Integer.parseInt(value);
+          break;
+        case "bookfile":
+          this.setBook(value);
+          break;
+        case "ponder":
+          //pondering is controlled by go ponder, nothing to set up
+          break;
+        case "pawnrow":
+          this.pawnRow = Integer.parseInt(value);
+          break;
+        case "pawnsquares":
+          this.pawnSquares = Integer.parseInt(value);
+          break;
+        case "queenrookcolumn":
+          this.queenRookColumn = Integer.parseInt(value);
+          break;
+        case "kingrookcolumn":
+          this.kingRookColumn = Integer.parseInt(value);
+          break;
+        case "promotionoptions":
+          this.promotionOptions = value;
+          break;
+        case "friendlyfire":
+          this.friendlyFire = Boolean.parseBoolean(value);
+          break;
+        default:
+          this.out.println("info string unknown option " + name);
+      }
+    }
+    catch (NumberFormatException e) {
+      this.out.println("info string bad value for " + name + ": " + value);
+    }
+  }
+
+  void setBook(String path) {
+    //an empty path turns the book off
+    this.book = null;
+    if (path.isEmpty() || path.equals("<empty>")) {
+      return;
+    }
+    try {
+      this.book = new OpeningBook(path);
+    }
+    catch (IOException e) {
+      this.out.println("info string couldn't load book " + path + ": " + e.getMessage());
+    }
+  }
+
+  void setPosition(String[] tokens) {
+    //position [startpos | fen <fen>] [moves <move> ...]
+    String fen;
+    int index;
+    if (tokens.length > 1 && tokens[1].equals("fen")) {
+      fen = "";
+      index = 2;
+      while (index < tokens.length && !tokens[index].equals("moves")) {
+        fen += fen.isEmpty() ? tokens[index] : " " + tokens[index];
+        index++;
+      }
+    }
+    else {
+      fen = STARTPOS;
+      index = 2;
+    }
+    List<String> moves = Collections.emptyList();
+    if (index < tokens.length && tokens[index].equals("moves")) {
+      moves = Arrays.asList(tokens).subList(index+1,tokens.length);
+    }
+
+    //usually the last position with a move or 2 more, only those need making
+    if (this.game != null && fen.equals(this.gameFen) && this.game.replay(moves)) {
+      return;
+    }
+
+    try {
+      int kingRook = this.kingRookColumn;
+      if (kingRook == 0) {
+        kingRook = new Board(fen,this.pawnRow,this.pawnSquares,1,1,this.friendlyFire).width;
+      }
+      this.game = new Game(fen,this.pawnRow,this.pawnSquares,this.queenRookColumn,kingRook,
+          this.promotionOptions,this.friendlyFire);
+      this.gameFen = fen;
+    }
+    catch (RuntimeException e) {
+      this.out.println("info string invalid fen " + fen);
+      this.game = null;
+      return;
+    }
+
+    for (String move : moves) {
+      if (!this.game.makeMove(move)) {
+        this.out.println("info string illegal move " + move);
+        return;
+      }
+    }
+  }
+
+  void go(String[] tokens) {
+    if (this.game == null) {
+      this.setPosition(new String[] {"position","startpos"});
+    }
+    long whiteTime = 0;
+    long blackTime = 0;
+    long whiteIncrement = 0;
+    long blackIncrement = 0;
+    int movesToGo = 30;
+    long moveTime = 0;
+    long nodes = 0;
+    int depth = 0;
+    boolean infinite = false;
+    boolean ponder = false;
+    try {
+      for (int i=1;i<tokens.length;i++) {
+        switch (tokens[i]) {
+          case "wtime":
+            whiteTime = Long.parseLong(tokens[++i]);
+            break;
+          case "btime":
+            blackTime = Long.parseLong(tokens[++i]);
+            break;
+          case "winc":
+            whiteIncrement = Long.parseLong(tokens[++i]);
+            break;
+          case "binc":
+            blackIncrement = Long.parseLong(tokens[++i]);
+            break;
+          case "movestogo":
+            movesToGo = Math.max(1,Integer.parseInt(tokens[++i]));
+            break;
+          case "movetime":
+            moveTime = Long.parseLong(tokens[++i]);
+            break;
+          case "nodes":
+            nodes = Long.parseLong(tokens[++i]);
+            break;
+          case "depth":
+            depth = Integer.parseInt(tokens[++i]);
+            break;
+          case "infinite":
+            infinite = true;
+            break;
+          case "ponder":
+            ponder = true;
+            break;
+        }
+      }
+    }
+    catch (RuntimeException e) {
+      this.out.println("info string bad go command");
+      return;
+    }
+
+    //time for this move
+    boolean white = this.game.position.toMove;
+    long time = white ? whiteTime : blackTime;
+    long increment = white ? whiteIncrement : blackIncrement;
+    long timeLimit = moveTime;
+    if (timeLimit == 0 && time > 0) {
+      timeLimit = Math.max(1,Math.min(time/movesToGo + increment/2,time/2));
+    }
+    if (depth == 0) {
+      boolean limited = timeLimit > 0 || nodes > 0 || infinite || ponder;
+      depth = limited ? Search.MAX_DEPTH : this.depth;
+    }
+
+    final Engine root = new Engine(this.game,this.depth,this.quiescenceDepth);
+    root.obstacleRange = this.obstacleRange;
+    if (this.table == null && this.hash > 0) {
+      this.table = new TranspositionTable(this.hash);
+    }
+    root.setTable(this.table);
+    root.setBook(this.book);
+    final Search search = new Search(root,Math.min(depth,Search.MAX_DEPTH),new SearchListener() {
+      @Override
+      public void iterationComplete(SearchInfo info) {
+        Uci.this.printInfo(root,info);
+      }
+    });
+    search.setNodeLimit(nodes);
+    search.setTimeLimit(timeLimit);
+    //an infinite search is a ponder that never gets a ponderhit
+    search.setPondering(ponder || infinite);
+    this.search = search;
+    search.start();
+
+    //report the move once the search is done
+    this.reporter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Uci.this.printBestMove(root,search);
+      }
+    },"uci-bestmove");
+    this.reporter.setDaemon(true);
+    this.reporter.start();
+  }
+
+  void printInfo(Engine root,SearchInfo info) {
+    String result = "info depth " + info.depth + " score " + Uci.score(root.position,info.score) +
+        " nodes " + info.nodes + " nps " + info.nps + " time " + info.time + " pv";
+    for (String move : info.pv) {
+      result += " " + move;
+    }
+    this.out.println(result);
+  }
+
+  static String score(Board root,int score) {
+    int mate = Search.mateIn(root,score);
+    return mate == 0 ? "cp " + score : "mate " + mate;
+  }
+
+  void printBestMove(Engine root,Search search) {
+    Engine result;
+    try {
+      result = search.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    if (result == null || result == search.root) {
+      this.out.println("bestmove (none)");
+      return;
+    }
+    List<String> pv = search.getPv();
+    String move = pv.isEmpty() ? Board.moveToString(search.root.position,result.position) : pv.get(0);
+    if (pv.size() > 1) {
+      this.out.println("bestmove " + move + " ponder " + pv.get(1));
+    }
+    else {
+      this.out.println("bestmove " + move);
+    }
+  }
+
+  void stopSearch() {
+    //stops any search and waits for its move to be reported
+    if (this.search != null) {
+      this.search.stop();
+      try {
+        this.reporter.join();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      this.search = null;
+      this.reporter = null;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package io.github.mathmagician8191.chessgame;
+
+class UndoRecord {
+  /*
+  What a move or promotion changed in a game, so it can be taken back without replaying the game
+  Moves replace the square arrays on the board rather than changing them, so the old ones are kept
+  Records are never changed once the move is made and link back to the one before,
+  so copies of a game share them
+  */
+
+  //the move, promotion is 0 for a move and the piece for a promotion
+  final int[] startSquare;
+  final int[] endSquare;
+  final char promotion;
+  final UndoRecord previous;
+
+  //board before the move
+  final boolean toMove;
+  final int halfmoveClock;
+  final int moves;
+  final boolean inCheck;
+  final boolean gameOver;
+  final boolean promotionAvailable;
+  final int[] promotionSquare;
+  final int[] enPassant;
+  final int[] whiteKingLocation;
+  final int[] blackKingLocation;
+  final int[] lastStart;
+  final int[] lastEnd;
+  final boolean[] castleRights;
+
+  //game before the move
+  final int gameResult;
+  final String endCause;
+  final History history;
+
+  //squares changed by the move and the pieces that were on them, a move changes at most 4
+  final int[] columns;
+  final int[] rows;
+  final Piece[] pieces;
+  int changes;
+
+  UndoRecord(Game game,int[] startSquare,int[] endSquare,char promotion) {
+    Board board = game.position;
+    this.startSquare = startSquare;
+    this.endSquare = endSquare;
+    this.promotion = promotion;
+    this.previous = game.lastMove;
+
+    this.toMove = board.toMove;
+    this.halfmoveClock = board.halfmoveClock;
+    this.moves = board.moves;
+    this.inCheck = board.inCheck;
+    this.gameOver = board.gameOver;
+    this.promotionAvailable = board.promotionAvailable;
+    this.promotionSquare = board.promotionSquare;
+    this.enPassant = board.enPassant;
+    this.whiteKingLocation = board.whiteKingLocation;
+    this.blackKingLocation = board.blackKingLocation;
+    this.lastStart = board.startSquare;
+    this.lastEnd = board.endSquare;
+    this.castleRights = new boolean[] {
+      board.castleRights[0],
+      board.castleRights[1],
+      board.castleRights[2],
+      board.castleRights[3]
+    };
+
+    this.gameResult = game.gameResult;
+    this.endCause = game.endCause;
+    this.history = game.history;
+
+    this.columns = new int[4];
+    this.rows = new int[4];
+    this.pieces = new Piece[4];
+  }
+
+  void changed(int column,int row,Piece piece) {
+    //called by the board before it changes a square
+    this.columns[this.changes] = column;
+    this.rows[this.changes] = row;
+    this.pieces[this.changes] = piece;
+    this.changes++;
+  }
+
+  String move() {
+    //the move in coordinate notation, the promotion piece is added by the caller
+    StringBuilder result = new StringBuilder(8);
+    Board.appendSquare(result,this.startSquare[0],this.startSquare[1]);
+    Board.appendSquare(result,this.endSquare[0],this.endSquare[1]);
+    return result.toString();
+  }
+}